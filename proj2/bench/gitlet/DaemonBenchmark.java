@@ -0,0 +1,120 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static gitlet.Utils.*;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 比较每条命令的延迟:
+ * <pre>
+ *     java -cp classes:.. gitlet.DaemonBenchmark [runs]
+ * </pre>
+ * cold: 没有 daemon，每条命令启动一个 JVM；client: daemon 运行时启动 JVM，由 Main 转发给 daemon；
+ * socket: 在本 JVM 中直接通过 socket 发送给 daemon，即不包含客户端 JVM 启动的延迟
+ */
+
+public class DaemonBenchmark {
+
+    private static final int DEFAULT_RUNS = 20;
+
+    private static final int FILES = 200;
+
+    private static final int COMMITS = 20;
+
+    private static final String[][] COMMANDS = {
+        {"status"}, {"log"}, {"log", "-n", "1"}, {"find", "commit 7"}, {"branch", "b"}
+    };
+
+    public static void main(String... args) throws IOException, InterruptedException {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_RUNS;
+        Path dir = Files.createTempDirectory("gitlet-daemon-");
+        Process daemon = null;
+        try {
+            File cwd = dir.toFile();
+            setUp(cwd);
+            double[][] cold = new double[COMMANDS.length][];
+            for (int i = 0; i < COMMANDS.length; i += 1) {
+                cold[i] = measure(cwd, COMMANDS[i], runs, false);
+            }
+            daemon = GitletProcess.start(cwd, "daemon");
+            // daemon 输出第一行时已经开始监听
+            new BufferedReader(new InputStreamReader(daemon.getInputStream())).readLine();
+            System.out.printf("%-16s %12s %12s %12s%n", "command", "cold(ms)", "client(ms)",
+                    "socket(ms)");
+            for (int i = 0; i < COMMANDS.length; i += 1) {
+                double[] client = measure(cwd, COMMANDS[i], runs, false);
+                double[] socket1 = measure(cwd, COMMANDS[i], runs, true);
+                System.out.printf("%-16s %12.2f %12.2f %12.2f%n", String.join(" ", COMMANDS[i]),
+                        median(cold[i]), median(client), median(socket1));
+            }
+        } finally {
+            if (daemon != null) {
+                daemon.destroy();
+                daemon.waitFor();
+            }
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    /**
+     * 新建 FILES 个文件、COMMITS 个 commit 的仓库
+     */
+    private static void setUp(File cwd) throws IOException, InterruptedException {
+        GitletProcess.run(cwd, "init");
+        for (int c = 0; c < COMMITS; c += 1) {
+            List<String> add = new ArrayList<>(List.of("add"));
+            for (int i = c; i < FILES; i += COMMITS) {
+                writeContents(join(cwd, "file" + i + ".txt"), "file " + i + " commit " + c + "\n");
+                add.add("file" + i + ".txt");
+            }
+            GitletProcess.run(cwd, add.toArray(new String[0]));
+            GitletProcess.run(cwd, "commit", "commit " + c);
+        }
+    }
+
+    /**
+     * 执行 runs 次命令，branch 每次使用新的分支名
+     *
+     * @return 每次的延迟(毫秒)
+     */
+    private static double[] measure(File cwd, String[] command, int runs, boolean socket)
+            throws IOException, InterruptedException {
+        double[] millis = new double[runs];
+        for (int i = 0; i < runs; i += 1) {
+            String[] args = command.clone();
+            if (args[0].equals("branch")) {
+                args[1] = "b" + System.nanoTime();
+            }
+            long start = System.nanoTime();
+            if (socket) {
+                GitletDaemon.forward(join(cwd, ".gitlet"), args,
+                        OutputStream.nullOutputStream(), OutputStream.nullOutputStream());
+            } else {
+                GitletProcess.run(cwd, args);
+            }
+            millis[i] = (System.nanoTime() - start) / 1e6;
+        }
+        return millis;
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
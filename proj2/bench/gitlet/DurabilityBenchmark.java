@@ -0,0 +1,82 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.stream.Stream;
+
+import static gitlet.Utils.*;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 比较三种持久化模式下 commit 的延迟，在同一个 JVM 中运行，不包含启动时间:
+ * <pre>
+ *     java -cp classes:.. gitlet.DurabilityBenchmark [commits]
+ * </pre>
+ * 每种模式在临时目录中新建仓库，每次 commit 写入一个 blob、commit、分支和暂存区，
+ * 再调用 {@link RepositoryPath#flush()}，与命令结束时相同
+ */
+
+public class DurabilityBenchmark {
+
+    private static final int DEFAULT_COMMITS = 200;
+
+    public static void main(String... args) throws IOException {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_COMMITS;
+        System.out.printf("%-8s %10s %10s %10s %8s%n", "mode", "mean(ms)", "p50(ms)", "p99(ms)",
+                "fsyncs");
+        for (Journal.Mode mode : Journal.Mode.values()) {
+            run(mode, commits);
+        }
+    }
+
+    private static void run(Journal.Mode mode, int commits) throws IOException {
+        System.setProperty("gitlet.durability", mode.name());
+        Path dir = Files.createTempDirectory("gitlet-bench-");
+        try {
+            RepositoryPath repo = new RepositoryPath(dir.toFile());
+            for (File d : new File[]{repo.getCommitsDir(), repo.getTreesDir(),
+                repo.getBlobsDir(), repo.getHeadsDir(), repo.getRemotesDir()}) {
+                d.mkdirs();
+            }
+            repo.saveStage(new Stage());
+            Commit parent = Commit.initialCommit();
+            repo.saveCommit(parent);
+            repo.saveBranchAndCheckout("master", parent.getKey());
+            repo.flush();
+            Stats.reset();
+
+            long[] nanos = new long[commits];
+            for (int i = 0; i < commits; i += 1) {
+                File file = join(dir.toFile(), "file" + (i % 16) + ".txt");
+                writeContents(file, "commit " + i + "\n");
+                long start = System.nanoTime();
+                String blobKey = repo.createAndSaveBlob(file);
+                Commit commit = new Commit("commit " + i, parent, new Date());
+                commit.getTree().put(file.getName(), blobKey);
+                repo.saveCommit(commit);
+                repo.saveBranch("master", commit.getKey());
+                repo.getStage().clear();
+                repo.flush();
+                nanos[i] = System.nanoTime() - start;
+                parent = commit;
+            }
+            Arrays.sort(nanos);
+            System.out.printf("%-8s %10.3f %10.3f %10.3f %8.1f%n",
+                    mode.name().toLowerCase(),
+                    Arrays.stream(nanos).average().orElse(0) / 1e6,
+                    nanos[commits / 2] / 1e6,
+                    nanos[Math.min(commits - 1, commits * 99 / 100)] / 1e6,
+                    (double) Stats.get("journal.fsyncs") / commits);
+        } finally {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static gitlet.Utils.*;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 在性能测试和并发测试中启动 gitlet 进程，使用与当前 JVM 相同的 java 和 classpath。
+ * 子进程的工作目录是测试仓库，classpath 中的相对路径需要先转换为绝对路径
+ */
+
+public class GitletProcess {
+
+    /**
+     * 在 dir 中启动 gitlet，标准错误合并到标准输出
+     *
+     * @param dir  工作目录
+     * @param args gitlet 的参数
+     * @return 子进程
+     */
+    public static Process start(File dir, String... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(join(new File(System.getProperty("java.home")), "bin", "java").getPath());
+        command.add("-cp");
+        command.add(classPath());
+        command.add(Main.class.getName());
+        command.addAll(Arrays.asList(args));
+        return new ProcessBuilder(command).directory(dir).redirectErrorStream(true).start();
+    }
+
+    /**
+     * 在 dir 中运行 gitlet 并丢弃输出
+     *
+     * @param dir  工作目录
+     * @param args gitlet 的参数
+     */
+    public static void run(File dir, String... args) throws IOException, InterruptedException {
+        Process process = start(dir, args);
+        process.getInputStream().readAllBytes();
+        if (process.waitFor() != 0) {
+            throw error("%s exited with code %d", args[0], process.exitValue());
+        }
+    }
+
+    private static String classPath() {
+        return Arrays.stream(System.getProperty("java.class.path").split(File.pathSeparator))
+                .map(entry -> new File(entry).getAbsolutePath())
+                .collect(Collectors.joining(File.pathSeparator));
+    }
+}
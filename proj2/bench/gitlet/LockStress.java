@@ -0,0 +1,150 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static gitlet.Utils.*;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 多进程并发测试，在临时目录中新建仓库后由多个 worker 同时启动 gitlet 进程:
+ * <pre>
+ *     java -cp classes:.. gitlet.LockStress [processes]
+ * </pre>
+ * 1. 每个 worker 依次 add 多个不同的文件，另一个 worker 同时反复 commit，结束后全部文件都必须被跟踪；
+ * 2. commit 之后每个 worker 新建一个分支并运行 log 和 status，结束后必须包含全部分支。
+ * 任何一项检查失败时抛出异常，进程以非零状态码退出
+ */
+
+public class LockStress {
+
+    private static final int DEFAULT_PROCESSES = 16;
+
+    /**
+     * 每个 worker 依次执行的 add 次数
+     */
+    private static final int ADDS_PER_WORKER = 10;
+
+    public static void main(String... args) throws IOException, InterruptedException {
+        int processes = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PROCESSES;
+        Path dir = Files.createTempDirectory("gitlet-lock-");
+        boolean ok;
+        try {
+            ok = run(dir.toFile(), processes);
+        } finally {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+        if (!ok) {
+            throw error("Lock stress failed.");
+        }
+        System.out.println("OK");
+    }
+
+    private static boolean run(File dir, int processes) throws IOException, InterruptedException {
+        gitlet(dir, "init");
+        List<List<String[]>> workers = new ArrayList<>();
+        for (int i = 0; i < processes; i += 1) {
+            List<String[]> commands = new ArrayList<>();
+            for (int j = 0; j < ADDS_PER_WORKER; j += 1) {
+                String name = "file" + i + "-" + j + ".txt";
+                writeContents(join(dir, name), "file " + i + " " + j + "\n");
+                commands.add(new String[]{"add", name});
+            }
+            workers.add(commands);
+        }
+        // 与 add 同时反复 commit，commit 读取和清空暂存区之间写入的文件不能丢失
+        List<String[]> commits = new ArrayList<>();
+        for (int j = 0; j < ADDS_PER_WORKER; j += 1) {
+            commits.add(new String[]{"commit", "stress " + j});
+        }
+        workers.add(commits);
+        long start = System.nanoTime();
+        concurrently(dir, workers);
+        gitlet(dir, "commit", "stress");
+        // 全部文件都已提交，仍为未跟踪文件的就是丢失的 add
+        String status = gitlet(dir, "status");
+        String untracked = status.substring(status.indexOf("=== Untracked Files ==="));
+        int files = processes * ADDS_PER_WORKER;
+        int tracked = files;
+        for (int i = 0; i < processes; i += 1) {
+            for (int j = 0; j < ADDS_PER_WORKER; j += 1) {
+                if (untracked.contains("\nfile" + i + "-" + j + ".txt\n")) {
+                    tracked -= 1;
+                }
+            }
+        }
+        System.out.printf("add:    %d/%d files tracked, %.0f ms%n", tracked, files,
+                (System.nanoTime() - start) / 1e6);
+
+        workers.clear();
+        for (int i = 0; i < processes; i += 1) {
+            List<String[]> commands = new ArrayList<>();
+            commands.add(new String[]{"branch", "b" + i});
+            commands.add(new String[]{"log"});
+            commands.add(new String[]{"status"});
+            workers.add(commands);
+        }
+        start = System.nanoTime();
+        concurrently(dir, workers);
+        status = gitlet(dir, "status");
+        int branches = 0;
+        for (int i = 0; i < processes; i += 1) {
+            if (status.contains("\nb" + i + "\n")) {
+                branches += 1;
+            }
+        }
+        System.out.printf("branch: %d/%d branches created, %.0f ms%n", branches, processes,
+                (System.nanoTime() - start) / 1e6);
+        return tracked == files && branches == processes;
+    }
+
+    /**
+     * 每个 worker 在单独的线程中依次执行自己的命令，worker 之间并发
+     */
+    private static void concurrently(File dir, List<List<String[]>> workers)
+            throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        for (List<String[]> commands : workers) {
+            Thread thread = new Thread(() -> {
+                try {
+                    for (String[] command : commands) {
+                        Process process = GitletProcess.start(dir, command);
+                        String output = new String(process.getInputStream().readAllBytes());
+                        if (process.waitFor() != 0) {
+                            errors.add(command[0] + " exited with code " + process.exitValue()
+                                    + ":\n" + output);
+                        }
+                    }
+                } catch (IOException | InterruptedException excp) {
+                    errors.add(excp.toString());
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (!errors.isEmpty()) {
+            throw error("%s", errors.get(0));
+        }
+    }
+
+    private static String gitlet(File dir, String... args) throws IOException, InterruptedException {
+        Process process = GitletProcess.start(dir, args);
+        String output = new String(process.getInputStream().readAllBytes());
+        process.waitFor();
+        return output;
+    }
+}
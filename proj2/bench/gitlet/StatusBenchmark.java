@@ -0,0 +1,138 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static gitlet.Utils.*;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 比较大工作目录中 status 的延迟:
+ * <pre>
+ *     java -cp classes:.. gitlet.StatusBenchmark [files] [padding]
+ * </pre>
+ * 提交 files 个文件(每个文件在一行内容后追加 padding 个字节)后，
+ * 先在没有 daemon 时分别使用和不使用 {@link StatCache} 运行 status，
+ * 不使用时每次运行前删除 .gitlet/index，每个文件都重新计算哈希值。
+ * 再启动 daemon，第一次 status 完整扫描并预热后，
+ * 每轮修改不同数量的文件后通过 socket 运行 status，输出延迟和重新检查的文件数
+ */
+
+public class StatusBenchmark {
+
+    private static final int DEFAULT_FILES = 50000;
+
+    private static final int[] EDITS = {0, 1, 10, 100, 1000};
+
+    private static final int COLD_RUNS = 3;
+
+    /**
+     * 等待刚写入的文件超出 StatCache 的 racy 时间窗口
+     */
+    private static final long RACY_WAIT_MILLIS = 2500;
+
+    /**
+     * 第一次 status 完整扫描后，在计时之前预热 daemon 的次数
+     */
+    private static final int WARMUP_RUNS = 10;
+
+    public static void main(String... args) throws IOException, InterruptedException {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_FILES;
+        int padding = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        Path dir = Files.createTempDirectory("gitlet-status-");
+        Process daemon = null;
+        try {
+            File cwd = dir.toFile();
+            GitletProcess.run(cwd, "init");
+            for (int i = 0; i < files; i += 1) {
+                writeContents(join(cwd, "file" + i + ".txt"), "file " + i + "\n",
+                        "x".repeat(padding));
+            }
+            GitletProcess.run(cwd, "add", ".");
+            GitletProcess.run(cwd, "commit", "files");
+
+            // 之后的第一次 status 将索引中的 racy 条目重新记录为稳定的
+            Thread.sleep(RACY_WAIT_MILLIS);
+            GitletProcess.run(cwd, "status");
+            System.out.printf("%d files + %d bytes padding, cold process status: "
+                    + "%.1f ms with index, %.1f ms without%n", files, padding,
+                    coldStatus(cwd, false), coldStatus(cwd, true));
+
+            daemon = GitletProcess.start(cwd, "daemon");
+            // daemon 输出第一行时已经开始监听
+            new BufferedReader(new InputStreamReader(daemon.getInputStream())).readLine();
+            File gitletDir = join(cwd, ".gitlet");
+            System.out.printf("%-8s %12s %8s %10s%n", "edits", "status(ms)", "scans", "rechecks");
+            status(gitletDir, "first");
+            for (int i = 0; i < WARMUP_RUNS; i += 1) {
+                GitletDaemon.forward(gitletDir, new String[]{"status"},
+                        OutputStream.nullOutputStream(), OutputStream.nullOutputStream());
+            }
+            int next = 0;
+            for (int edits : EDITS) {
+                for (int i = 0; i < edits; i += 1, next += 1) {
+                    writeContents(join(cwd, "file" + next + ".txt"), "edited " + next + "\n");
+                }
+                status(gitletDir, String.valueOf(edits));
+            }
+        } finally {
+            if (daemon != null) {
+                daemon.destroy();
+                daemon.waitFor();
+            }
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    /**
+     * 每次启动新的进程运行 status，取 COLD_RUNS 次中最快的一次
+     *
+     * @param dropIndex 是否在每次运行前删除 .gitlet/index
+     */
+    private static double coldStatus(File cwd, boolean dropIndex)
+            throws IOException, InterruptedException {
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < COLD_RUNS; i += 1) {
+            if (dropIndex) {
+                join(cwd, ".gitlet", "index").delete();
+            }
+            long start = System.nanoTime();
+            GitletProcess.run(cwd, "status");
+            best = Math.min(best, (System.nanoTime() - start) / 1e6);
+        }
+        return best;
+    }
+
+    /**
+     * 通过 socket 运行 status --stats，输出延迟和计数器
+     */
+    private static void status(File gitletDir, String label) {
+        ByteArrayOutputStream stats = new ByteArrayOutputStream();
+        long start = System.nanoTime();
+        GitletDaemon.forward(gitletDir, new String[]{"--stats", "status"},
+                OutputStream.nullOutputStream(), stats);
+        double millis = (System.nanoTime() - start) / 1e6;
+        String counters = stats.toString();
+        System.out.printf("%-8s %12.1f %8d %10d%n", label, millis,
+                counter(counters, "worktree.scans"), counter(counters, "worktree.rechecks"));
+    }
+
+    private static long counter(String counters, String name) {
+        Matcher matcher = Pattern.compile("(?m)^" + Pattern.quote(name) + ": (\\d+)$")
+                .matcher(counters);
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : 0;
+    }
+}
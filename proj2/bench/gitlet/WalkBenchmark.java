@@ -0,0 +1,202 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static gitlet.Utils.*;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 在 monorepo 结构的工作目录中比较遍历方式和 status 的延迟:
+ * <pre>
+ *     java -cp classes:.. gitlet.WalkBenchmark [files]
+ * </pre>
+ * 一半文件是 services/svcN/modM/pkgK 下跟踪的源文件，另一半在被 .gitletignore 忽略的 build/ 和 node_modules/ 中。
+ * 依次比较不剪枝的串行 Files.walkFileTree、剪枝的串行 Files.walkFileTree 和 {@link FileWalk}，
+ * 再比较没有 daemon 时和 daemon 中的 status
+ */
+
+public class WalkBenchmark {
+
+    private static final int DEFAULT_FILES = 200000;
+
+    private static final int SERVICES = 20;
+
+    private static final int MODULES = 10;
+
+    private static final int PACKAGES = 10;
+
+    private static final int GENERATED_DIRS = 10;
+
+    private static final int RUNS = 5;
+
+    private static final String IGNORE = "# 构建产物和依赖\nbuild/\nnode_modules/\n*.tmp\n";
+
+    public static void main(String... args) throws IOException, InterruptedException {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_FILES;
+        Path dir = Files.createTempDirectory("gitlet-walk-");
+        Process daemon = null;
+        try {
+            File cwd = dir.toFile();
+            GitletProcess.run(cwd, "init");
+            int tracked = setUp(cwd, files);
+            long start = System.nanoTime();
+            GitletProcess.run(cwd, "add", ".");
+            GitletProcess.run(cwd, "commit", "monorepo");
+            System.out.printf("%d files (%d tracked), add + commit: %.1f s, "
+                    + "fork-join parallelism: %d%n", files, tracked,
+                    (System.nanoTime() - start) / 1e9, ForkJoinPool.getCommonPoolParallelism());
+
+            IgnoreRules rules = IgnoreRules.load(cwd);
+            System.out.printf("%-36s %10s %10s%n", "walk", "ms", "files");
+            measure("walkFileTree, no pruning", () -> walkFileTree(dir, null));
+            measure("walkFileTree, pruned", () -> walkFileTree(dir, rules));
+            measure("FileWalk (fork-join), pruned", () -> FileWalk.walk(cwd, "", rules).size());
+
+            double cold = Double.MAX_VALUE;
+            for (int i = 0; i < RUNS; i += 1) {
+                start = System.nanoTime();
+                GitletProcess.run(cwd, "status");
+                cold = Math.min(cold, (System.nanoTime() - start) / 1e6);
+            }
+            System.out.printf("%-36s %10.1f%n", "cold process status", cold);
+
+            daemon = GitletProcess.start(cwd, "daemon");
+            // daemon 输出第一行时已经开始监听
+            new BufferedReader(new InputStreamReader(daemon.getInputStream())).readLine();
+            File gitletDir = join(cwd, ".gitlet");
+            System.out.printf("%-36s %10.1f%n", "daemon status, first", status(gitletDir));
+            for (int i = 0; i < RUNS; i += 1) {
+                status(gitletDir);
+            }
+            System.out.printf("%-36s %10.1f%n", "daemon status, 0 edits", status(gitletDir));
+            for (int i = 0; i < SERVICES; i += 1) {
+                writeContents(join(cwd, "services", "svc" + i, "mod0", "pkg0", "File0.java"),
+                        "edited\n");
+                writeContents(join(cwd, "services", "svc" + i, "build", "out0", "gen0.o"),
+                        "rebuilt\n");
+            }
+            System.out.printf("%-36s %10.1f%n", "daemon status, " + SERVICES + " + "
+                    + SERVICES + " ignored edits", status(gitletDir));
+        } finally {
+            if (daemon != null) {
+                daemon.destroy();
+                daemon.waitFor();
+            }
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    /**
+     * 生成工作目录
+     *
+     * @return 跟踪的文件数
+     */
+    private static int setUp(File cwd, int files) {
+        writeContents(join(cwd, IgnoreRules.FILE_NAME), IGNORE);
+        int leaves = SERVICES * MODULES * PACKAGES;
+        int perPackage = Math.max(1, files / 2 / leaves);
+        int perGenerated = Math.max(1, files / 4 / (SERVICES * GENERATED_DIRS));
+        int tracked = 0;
+        for (int s = 0; s < SERVICES; s += 1) {
+            File service = join(cwd, "services", "svc" + s);
+            for (int m = 0; m < MODULES; m += 1) {
+                for (int p = 0; p < PACKAGES; p += 1) {
+                    File pkg = join(service, "mod" + m, "pkg" + p);
+                    pkg.mkdirs();
+                    for (int f = 0; f < perPackage; f += 1, tracked += 1) {
+                        writeContents(join(pkg, "File" + f + ".java"),
+                                "class File" + f + " { /* " + s + "." + m + "." + p + " */ }\n");
+                    }
+                }
+            }
+            for (int g = 0; g < GENERATED_DIRS; g += 1) {
+                File build = join(service, "build", "out" + g);
+                File modules = join(service, "node_modules", "dep" + g);
+                build.mkdirs();
+                modules.mkdirs();
+                for (int f = 0; f < perGenerated; f += 1) {
+                    writeContents(join(build, "gen" + f + ".o"), "obj " + f + "\n");
+                    writeContents(join(modules, "index" + f + ".js"), "module " + f + "\n");
+                }
+            }
+        }
+        return tracked + 1;
+    }
+
+    /**
+     * 串行遍历，rules 为 null 时不剪枝
+     *
+     * @return 文件数
+     */
+    private static int walkFileTree(Path root, IgnoreRules rules) {
+        List<String> files = new ArrayList<>();
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+                    String path = relativize(root, d);
+                    if (path.equals(".gitlet")
+                            || rules != null && !path.isEmpty() && rules.isIgnored(path, true)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    String path = relativize(root, file);
+                    if (rules == null || !rules.isIgnored(path, false)) {
+                        files.add(path);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return files.size();
+    }
+
+    private static String relativize(Path root, Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * 预热后取 RUNS 次中最快的一次
+     */
+    private static void measure(String label, Supplier<Integer> walk) {
+        int files = walk.get();
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < RUNS; i += 1) {
+            long start = System.nanoTime();
+            walk.get();
+            best = Math.min(best, (System.nanoTime() - start) / 1e6);
+        }
+        System.out.printf("%-36s %10.1f %10d%n", label, best, files);
+    }
+
+    private static double status(File gitletDir) {
+        long start = System.nanoTime();
+        GitletDaemon.forward(gitletDir, new String[]{"status"},
+                OutputStream.nullOutputStream(), OutputStream.nullOutputStream());
+        return (System.nanoTime() - start) / 1e6;
+    }
+}
@@ -0,0 +1,135 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static gitlet.Utils.*;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 对象的二进制编码，代替 Java 序列化。每个对象以 magic(4) | version(4) 开头，
+ * 字符串为 length(4) | UTF-8，哈希值为 20 个字节。
+ * 不以 magic 开头的数据视为旧的 Java 序列化格式，由各对象的 fromStored 兼容读取
+ */
+
+public class BinaryCodec {
+
+    /**
+     * 文件头长度: magic + version
+     */
+    static final int HEADER_LENGTH = 8;
+
+    /**
+     * 对象内容的编码
+     */
+    @FunctionalInterface
+    interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * 编码对象
+     *
+     * @param magic   对象类型的魔数
+     * @param version 编码版本
+     * @param body    对象内容
+     * @return 编码后的数据
+     */
+    static byte[] encode(int magic, int version, Body body) {
+        try {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(magic);
+            out.writeInt(version);
+            body.write(out);
+            out.flush();
+            return stream.toByteArray();
+        } catch (IOException excp) {
+            throw error("Internal error encoding object.");
+        }
+    }
+
+    /**
+     * 数据是否为该类型的二进制编码
+     *
+     * @param data  存储的数据
+     * @param magic 对象类型的魔数
+     * @return 是否为二进制编码
+     */
+    static boolean hasMagic(byte[] data, int magic) {
+        return data.length >= HEADER_LENGTH && ByteBuffer.wrap(data).getInt() == magic;
+    }
+
+    /**
+     * 编码版本
+     *
+     * @param data 二进制编码的数据
+     * @return 编码版本
+     */
+    static int versionOf(byte[] data) {
+        return ByteBuffer.wrap(data).getInt(4);
+    }
+
+    /**
+     * 校验文件头并返回对象内容的输入流
+     *
+     * @param data    存储的数据
+     * @param magic   对象类型的魔数
+     * @param version 支持的最高编码版本
+     * @return 对象内容的输入流
+     */
+    static DataInputStream open(byte[] data, int magic, int version) {
+        ByteBuffer header = ByteBuffer.wrap(data);
+        if (data.length < HEADER_LENGTH || header.getInt() != magic) {
+            throw new IllegalArgumentException("Not an encoded object.");
+        }
+        int actual = header.getInt();
+        if (actual < 1 || actual > version) {
+            throw new IllegalArgumentException("Unsupported object version: " + actual);
+        }
+        return new DataInputStream(new ByteArrayInputStream(
+                data, HEADER_LENGTH, data.length - HEADER_LENGTH));
+    }
+
+    static void writeString(DataOutput out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 读取不可信来源的字符串，先检查长度再分配
+     *
+     * @param maxLength 最大字节数
+     */
+    static String readString(DataInput in, int maxLength) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > maxLength) {
+            throw new IOException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 写入 40 位十六进制哈希值对应的 20 个字节
+     */
+    static void writeId(DataOutput out, String key) throws IOException {
+        out.write(hexToBytes(key));
+    }
+
+    static String readId(DataInput in) throws IOException {
+        byte[] id = new byte[ObjectIdTable.ID_LENGTH];
+        in.readFully(id);
+        return bytesToHex(id, 0, id.length);
+    }
+}
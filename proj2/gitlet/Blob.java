@@ -1,15 +1,30 @@
 package gitlet;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * @author 苍镜月
  * @version 1.0
- * @implNote
+ * @implNote 文件内容。新的 blob 以原始格式存储: magic(4) | length(8) | content，
+ * 不经过 Java 序列化，便于直接在对象库和工作目录之间传输字节
  */
 
 public class Blob implements Serializable {
 
+    private static final long serialVersionUID = 1927302376739911143L;
+
+    /**
+     * 原始存储格式的魔数 "GBLB"
+     */
+    static final int RAW_MAGIC = 0x47424c42;
+
+    /**
+     * 原始存储格式头长度: magic + length
+     */
+    static final int RAW_HEADER_LENGTH = 12;
+
     private final String key;
 
     private final byte[] content;
@@ -33,4 +48,38 @@ public class Blob implements Serializable {
     public String getFileName() {
         return fileName;
     }
+
+    /**
+     * 原始存储格式的文件头
+     *
+     * @param length 文件内容长度
+     * @return 文件头
+     */
+    static byte[] rawHeader(long length) {
+        return ByteBuffer.allocate(RAW_HEADER_LENGTH).putInt(RAW_MAGIC).putLong(length).array();
+    }
+
+    /**
+     * 存储的数据是否为原始格式(否则为旧的 Java 序列化格式)
+     *
+     * @param data 存储的数据，至少包含文件头
+     * @return 是否为原始格式
+     */
+    static boolean isRaw(byte[] data) {
+        return data.length >= RAW_HEADER_LENGTH && ByteBuffer.wrap(data).getInt() == RAW_MAGIC;
+    }
+
+    /**
+     * 解析存储的 blob 数据，兼容旧的 Java 序列化格式
+     *
+     * @param key  blob 哈希值
+     * @param data 存储的数据
+     * @return Blob
+     */
+    static Blob fromStored(String key, byte[] data) {
+        if (isRaw(data)) {
+            return new Blob(key, Arrays.copyOfRange(data, RAW_HEADER_LENGTH, data.length), null);
+        }
+        return Utils.deserialize(data, Blob.class);
+    }
 }
@@ -0,0 +1,25 @@
+package gitlet;
+
+/**
+ * 结束当前命令，由 {@link Main} 捕获。命令行中退出进程，daemon 中只结束这一条命令
+ *
+ * @author 苍镜月
+ */
+class CommandExit extends RuntimeException {
+
+    private final int status;
+
+    /**
+     * 不提供带 cause 的构造方法，并行流在其他线程中抛出时保留原对象
+     *
+     * @param status 退出码
+     */
+    CommandExit(int status) {
+        super(null, null, false, false);
+        this.status = status;
+    }
+
+    int getStatus() {
+        return status;
+    }
+}
@@ -1,11 +1,14 @@
 package gitlet;
 
+import java.io.DataInputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
-import static gitlet.Utils.serialize;
+import static gitlet.BinaryCodec.*;
+import static gitlet.Utils.deserialize;
 import static gitlet.Utils.sha1;
 
 /**
@@ -15,6 +18,19 @@ import static gitlet.Utils.sha1;
  * @author 苍镜月
  */
 public class Commit implements Serializable {
+
+    private static final long serialVersionUID = 8620368988637781013L;
+
+    /**
+     * 二进制编码的魔数 "GCMT"
+     */
+    private static final int MAGIC = 0x47434d54;
+
+    /**
+     * 版本 1 在 commit 中直接保存全部文件，版本 2 只保存根目录对象的哈希值
+     */
+    private static final int VERSION = 2;
+
     /**
      * List all instance variables of the Commit class here with a useful
      * comment above them describing what that variable represents and how that
@@ -44,15 +60,34 @@ public class Commit implements Serializable {
     private String parentId2;
 
     /**
-     * 提交文件 k: path, v: blob hash value
+     * 提交文件 k: path, v: blob hash value。
+     * 从对象库读取的 commit 在第一次使用时由根目录对象展开
      */
     private Map<String, String> tree;
 
+    /**
+     * 根目录对象的哈希值，旧格式的 commit 为 null
+     */
+    private transient String treeKey;
+
+    /**
+     * 新 commit 由文件列表构建的根目录，保存时写入对象库
+     */
+    private transient Tree rootTree;
+
+    /**
+     * 读取该 commit 的仓库，用于展开根目录
+     */
+    private transient RepositoryPath source;
+
     /**
      * commitKey
      */
     private String commitKey;
 
+    private Commit() {
+    }
+
     public Commit(String message, Commit parentCommit, Date createTime) {
         this.message = message;
         this.creatTime = createTime;
@@ -81,14 +116,60 @@ public class Commit implements Serializable {
         return new Commit("initial commit", null, new Date(0L));
     }
 
-    public Map<String, String> getTree() {
+    public synchronized Map<String, String> getTree() {
+        if (tree == null) {
+            tree = source.readTreeFiles(treeKey);
+        }
         return tree;
     }
 
+    /**
+     * 根目录对象的哈希值，新 commit 和旧格式的 commit 由文件列表构建根目录
+     */
+    public String getTreeKey() {
+        if (treeKey == null) {
+            rootTree = Tree.build(getTree());
+            treeKey = rootTree.getKey();
+        }
+        return treeKey;
+    }
+
+    /**
+     * 由文件列表构建的根目录，从对象库读取的 commit 为 null
+     */
+    Tree getRootTree() {
+        return rootTree;
+    }
+
+    /**
+     * 文件列表是否已展开
+     */
+    boolean isTreeLoaded() {
+        return tree != null;
+    }
+
+    void setSource(RepositoryPath source) {
+        this.source = source;
+    }
+
+    /**
+     * 估算占用的内存，文件列表未展开时不计入
+     */
+    long estimatedSize() {
+        return 256 + message.length() * 2L + (tree == null ? 0 : tree.size() * 160L);
+    }
+
     public String getCreatTime() {
         return DATE_FORMAT.format(this.creatTime);
     }
 
+    /**
+     * commit 创建时间(毫秒)
+     */
+    long getTime() {
+        return creatTime.getTime();
+    }
+
     public void setCreatTime(Date creatTime) {
         this.creatTime = creatTime;
     }
@@ -101,19 +182,95 @@ public class Commit implements Serializable {
         this.message = message;
     }
 
+    /**
+     * commit key 为二进制编码的哈希值，编码中不包含 commitKey 本身
+     */
     public String getKey() {
         if (commitKey == null) {
-            commitKey = sha1(serialize(this));
+            commitKey = sha1(encode());
         }
         return commitKey;
     }
 
+    /**
+     * 二进制编码:
+     * <pre>
+     * "GCMT" | version | parentCount(1) | parentId[20]* | time(8) | message | treeId[20]
+     * </pre>
+     * 文件列表保存在 {@link Tree} 中，相同内容的 commit 编码唯一
+     *
+     * @return 编码后的数据
+     */
+    public byte[] encode() {
+        return BinaryCodec.encode(MAGIC, VERSION, out -> {
+            int parentCount = parentId1 == null ? 0 : parentId2 == null ? 1 : 2;
+            out.writeByte(parentCount);
+            if (parentCount > 0) {
+                writeId(out, parentId1);
+            }
+            if (parentCount > 1) {
+                writeId(out, parentId2);
+            }
+            out.writeLong(creatTime.getTime());
+            writeString(out, message);
+            writeId(out, getTreeKey());
+        });
+    }
+
+    /**
+     * 存储的数据是否为旧的 Java 序列化格式
+     *
+     * @param data 存储的数据
+     * @return 是否为旧格式
+     */
+    static boolean isSerialized(byte[] data) {
+        return !hasMagic(data, MAGIC);
+    }
+
+    /**
+     * 解析存储的 commit 数据，兼容旧的 Java 序列化格式
+     *
+     * @param key  commit key
+     * @param data 存储的数据
+     * @return Commit
+     */
+    static Commit fromStored(String key, byte[] data) {
+        if (!hasMagic(data, MAGIC)) {
+            return deserialize(data, Commit.class);
+        }
+        try (DataInputStream in = open(data, MAGIC, VERSION)) {
+            Commit commit = new Commit();
+            int parentCount = in.readUnsignedByte();
+            if (parentCount > 0) {
+                commit.parentId1 = readId(in);
+            }
+            if (parentCount > 1) {
+                commit.parentId2 = readId(in);
+            }
+            commit.creatTime = new Date(in.readLong());
+            commit.message = readString(in);
+            if (versionOf(data) == 1) {
+                int count = in.readInt();
+                commit.tree = new HashMap<>(Math.max(16, count * 4 / 3 + 1));
+                for (int i = 0; i < count; i += 1) {
+                    commit.tree.put(readString(in), readId(in));
+                }
+            } else {
+                commit.treeKey = readId(in);
+            }
+            commit.commitKey = key;
+            return commit;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     public boolean hasFile(String fileName) {
-        return this.tree.containsKey(fileName);
+        return getTree().containsKey(fileName);
     }
 
     public String getBlobKey(String fileName) {
-        return this.tree.get(fileName);
+        return getTree().get(fileName);
     }
 
     public boolean isMerge() {
@@ -130,25 +287,34 @@ public class Commit implements Serializable {
 
     @Override
     public String toString() {
-        return isMerge() ? printMerge() : print();
+        return format(getKey(), parentId1, parentId2, creatTime, message);
     }
 
-    private String print() {
-        return "===\n" 
-                + "commit " + getKey() + "\n" 
-                + "Date: " + getCreatTime() + "\n" 
-                + getMessage() + "\n";
-    }
-
-    private String printMerge() {
+    /**
+     * log 中一个 commit 的输出，提交信息索引中的 commit 也使用该格式
+     *
+     * @param key       commit key
+     * @param parentId1 父1 commitId
+     * @param parentId2 父2 commitId，不是 merge commit 时为 null
+     * @param time      commit 创建时间
+     * @param message   提交信息
+     * @return log 输出
+     */
+    static String format(String key, String parentId1, String parentId2, Date time,
+                         String message) {
         return "===\n" 
-                + "commit " + getKey() + "\n" 
-                + "Merge: " + getFirstParentKey().substring(0, 7) + " " 
-                + getSecondParentKey().substring(0, 7) + "\n" 
-                + "Date: " + getCreatTime() + "\n" 
-                + getMessage() + "\n";
+                + "commit " + key + "\n" 
+                + (parentId1 != null && parentId2 != null 
+                    ? "Merge: " + parentId1.substring(0, 7) + " " 
+                        + parentId2.substring(0, 7) + "\n" 
+                    : "") 
+                + "Date: " + DATE_FORMAT.format(time) + "\n" 
+                + message + "\n";
     }
 
+    /**
+     * commit 由内容的哈希值唯一确定
+     */
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -157,17 +323,11 @@ public class Commit implements Serializable {
         if (o == null || getClass() != o.getClass()) {
             return false;
         }
-        Commit commit = (Commit) o;
-        return Objects.equals(message, commit.message) 
-                && Objects.equals(creatTime, commit.creatTime) 
-                && Objects.equals(parentId1, commit.parentId1) 
-                && Objects.equals(parentId2, commit.parentId2) 
-                && Objects.equals(tree, commit.tree) 
-                && Objects.equals(commitKey, commit.commitKey);
+        return getKey().equals(((Commit) o).getKey());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(message, creatTime, parentId1, parentId2, tree, commitKey);
+        return getKey().hashCode();
     }
 }
@@ -0,0 +1,426 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 提交图。持久化的 commit-graph 文件保存每个 commit 的父节点位置和 generation:
+ * <pre>
+ * "GCGR" | version | fanout[256] | id[20]*count | { parent1 | parent2 | generation }*count
+ * </pre>
+ * fanout 和 id 见 {@link ObjectIdTable}。
+ * 父节点为 -1 表示不存在。generation(根) = 1，generation(c) = 1 + max(generation(父节点))，
+ * 因此 generation 较小的 commit 不可能是 generation 较大的 commit 的后代，
+ * 求公共祖先时可以据此剪枝，不用遍历全部历史。
+ * 不在文件中的 commit(最近一次 gc 之后提交的)从对象库中读取并计算 generation
+ */
+
+public class CommitGraph {
+
+    private static final int MAGIC = 0x47434752;
+
+    private static final int VERSION = 2;
+
+    /**
+     * 文件头长度: magic + version
+     */
+    private static final int HEADER_LENGTH = 8;
+
+    /**
+     * 每个 commit 的数据长度: parent1 + parent2 + generation
+     */
+    private static final int DATA_LENGTH = 12;
+
+    /**
+     * 遍历时的标记
+     */
+    private static final int PARENT1 = 1;
+    private static final int PARENT2 = 2;
+    private static final int STALE = 4;
+    private static final int RESULT = 8;
+
+    private final RepositoryPath repositoryPath;
+
+    /**
+     * commit-graph 文件内容，文件不存在时为 null
+     */
+    private final MappedByteBuffer graph;
+
+    private final ObjectIdTable ids;
+
+    private final int count;
+
+    /**
+     * 不在 commit-graph 文件中的 commit
+     */
+    private final Map<String, String[]> extraParents = new HashMap<>();
+
+    private final Map<String, Integer> extraGenerations = new HashMap<>();
+
+    public CommitGraph(RepositoryPath repositoryPath) {
+        this.repositoryPath = repositoryPath;
+        File file = repositoryPath.getCommitGraphFile();
+        MappedByteBuffer buffer = null;
+        if (file.isFile()) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                buffer = null;
+            }
+        }
+        this.graph = buffer;
+        this.ids = buffer == null ? null : new ObjectIdTable(buffer, HEADER_LENGTH);
+        this.count = ids == null ? 0 : ids.size();
+    }
+
+    /**
+     * commit-graph 文件中 commit 的个数
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * 查找 commit 在 commit-graph 文件中的位置
+     *
+     * @param commitKey 完整的 commit key
+     * @return 位置，不存在返回 -1
+     */
+    public int find(String commitKey) {
+        return ids == null ? -1 : ids.find(commitKey);
+    }
+
+    private String getKey(int i) {
+        return ids.getKey(i);
+    }
+
+    private int dataOffset(int i) {
+        return ids.endOffset() + i * DATA_LENGTH;
+    }
+
+    /**
+     * 获取父节点
+     *
+     * @param commitKey commit key
+     * @return 父节点，第一个父节点在前
+     */
+    public String[] parents(String commitKey) {
+        int i = find(commitKey);
+        if (i >= 0) {
+            int p1 = graph.getInt(dataOffset(i));
+            int p2 = graph.getInt(dataOffset(i) + 4);
+            if (p1 < 0) {
+                return new String[0];
+            }
+            return p2 < 0 ? new String[]{getKey(p1)} : new String[]{getKey(p1), getKey(p2)};
+        }
+        String[] parents = extraParents.get(commitKey);
+        if (parents == null) {
+            Commit commit = repositoryPath.getCommit(commitKey);
+            parents = parentsOf(commit);
+            extraParents.put(commitKey, parents);
+        }
+        return parents;
+    }
+
+    private static String[] parentsOf(Commit commit) {
+        if (commit.getFirstParentKey() == null) {
+            return new String[0];
+        }
+        if (commit.getSecondParentKey() == null) {
+            return new String[]{commit.getFirstParentKey()};
+        }
+        return new String[]{commit.getFirstParentKey(), commit.getSecondParentKey()};
+    }
+
+    /**
+     * 获取 generation
+     *
+     * @param commitKey commit key
+     * @return generation
+     */
+    public int generation(String commitKey) {
+        int i = find(commitKey);
+        if (i >= 0) {
+            return graph.getInt(dataOffset(i) + 8);
+        }
+        Integer generation = extraGenerations.get(commitKey);
+        if (generation != null) {
+            return generation;
+        }
+        // 不在文件中的 commit 一般只有最近的少量提交，用显式栈避免递归过深
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(commitKey);
+        while (!stack.isEmpty()) {
+            String key = stack.peek();
+            int max = 0;
+            boolean ready = true;
+            for (String parent : parents(key)) {
+                int pi = find(parent);
+                Integer pg = pi >= 0 ? Integer.valueOf(graph.getInt(dataOffset(pi) + 8))
+                        : extraGenerations.get(parent);
+                if (pg == null) {
+                    stack.push(parent);
+                    ready = false;
+                } else {
+                    max = Math.max(max, pg);
+                }
+            }
+            if (ready) {
+                stack.pop();
+                extraGenerations.put(key, max + 1);
+            }
+        }
+        return extraGenerations.get(commitKey);
+    }
+
+    /**
+     * ancestor 是否为 descendant 的祖先(包括自身)，generation 小于 ancestor 的 commit 不再遍历
+     *
+     * @param ancestor   祖先
+     * @param descendant 后代
+     * @return 是否为祖先
+     */
+    public boolean isAncestor(String ancestor, String descendant) {
+        int minGeneration = generation(ancestor);
+        Set<String> visited = new HashSet<>();
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(descendant);
+        while (!stack.isEmpty()) {
+            String key = stack.pop();
+            if (key.equals(ancestor)) {
+                return true;
+            }
+            if (!visited.add(key) || generation(key) <= minGeneration) {
+                continue;
+            }
+            for (String parent : parents(key)) {
+                stack.push(parent);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 找到 base 和 target 的最近公共祖先。
+     * 按 generation 从大到小遍历两边的祖先，两边都能到达的 commit 为公共祖先，
+     * 其祖先全部标记为 STALE，只剩 STALE 节点时停止；
+     * 有多个最近公共祖先(criss-cross)时选择离 base 最近的一个
+     *
+     * @param base   当前 commit
+     * @param target 目标 commit
+     * @return 公共祖先 commit key，不存在返回 null
+     */
+    public String mergeBase(String base, String target) {
+        if (base.equals(target)) {
+            return base;
+        }
+        Map<String, Integer> flags = new HashMap<>();
+        PriorityQueue<String> queue = new PriorityQueue<>((a, b) -> {
+            int c = Integer.compare(generation(b), generation(a));
+            return c != 0 ? c : a.compareTo(b);
+        });
+        flags.put(base, PARENT1);
+        flags.put(target, PARENT2);
+        queue.add(base);
+        queue.add(target);
+
+        List<String> candidates = new ArrayList<>();
+        while (hasNonStale(queue, flags)) {
+            String key = queue.poll();
+            int keyFlags = flags.get(key);
+            int reach = keyFlags & (PARENT1 | PARENT2 | STALE);
+            if (reach == (PARENT1 | PARENT2)) {
+                if ((keyFlags & RESULT) == 0) {
+                    flags.put(key, keyFlags | RESULT);
+                    candidates.add(key);
+                }
+                reach |= STALE;
+            }
+            for (String parent : parents(key)) {
+                int parentFlags = flags.getOrDefault(parent, 0);
+                if ((parentFlags & reach) == reach) {
+                    continue;
+                }
+                flags.put(parent, parentFlags | reach);
+                queue.add(parent);
+            }
+        }
+
+        List<String> bases = new ArrayList<>();
+        for (String candidate : candidates) {
+            if ((flags.get(candidate) & STALE) == 0) {
+                bases.add(candidate);
+            }
+        }
+        bases = removeRedundant(bases);
+        if (bases.size() <= 1) {
+            return bases.isEmpty() ? null : bases.get(0);
+        }
+        return closest(base, new HashSet<>(bases));
+    }
+
+    private static boolean hasNonStale(PriorityQueue<String> queue, Map<String, Integer> flags) {
+        for (String key : queue) {
+            if ((flags.get(key) & STALE) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 去掉是其他候选祖先的祖先的候选
+     */
+    private List<String> removeRedundant(List<String> candidates) {
+        List<String> res = new ArrayList<>();
+        for (String candidate : candidates) {
+            boolean redundant = false;
+            for (String other : candidates) {
+                if (!other.equals(candidate) && isAncestor(candidate, other)) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) {
+                res.add(candidate);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * 从 start 开始广度优先遍历，返回最先到达的目标
+     */
+    private String closest(String start, Set<String> targets) {
+        int minGeneration = Integer.MAX_VALUE;
+        for (String target : targets) {
+            minGeneration = Math.min(minGeneration, generation(target));
+        }
+        Set<String> visited = new HashSet<>();
+        Queue<String> q = new LinkedList<>();
+        q.add(start);
+        visited.add(start);
+        while (!q.isEmpty()) {
+            String key = q.poll();
+            if (targets.contains(key)) {
+                return key;
+            }
+            for (String parent : parents(key)) {
+                if (generation(parent) >= minGeneration && visited.add(parent)) {
+                    q.add(parent);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 为仓库中的全部 commit 写入 commit-graph 文件
+     *
+     * @param repositoryPath 仓库
+     */
+    public static void write(RepositoryPath repositoryPath) {
+        List<String> keys = repositoryPath.getAllCommitKeys();
+        int n = keys.size();
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < n; i += 1) {
+            positions.put(keys.get(i), i);
+        }
+        int[] parent1 = new int[n];
+        int[] parent2 = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            Commit commit = repositoryPath.getCommit(keys.get(i));
+            parent1[i] = positionOf(positions, commit.getFirstParentKey());
+            parent2[i] = positionOf(positions, commit.getSecondParentKey());
+        }
+        int[] generations = computeGenerations(parent1, parent2);
+
+        File file = repositoryPath.getCommitGraphFile();
+        File tmp = null;
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            tmp = createTempFileIn(file.getParentFile(), null);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                ObjectIdTable.write(out, keys);
+                for (int i = 0; i < n; i += 1) {
+                    out.writeInt(parent1[i]);
+                    out.writeInt(parent2[i]);
+                    out.writeInt(generations[i]);
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    private static int positionOf(Map<String, Integer> positions, String key) {
+        if (key == null) {
+            return -1;
+        }
+        Integer position = positions.get(key);
+        if (position == null) {
+            throw error("Missing parent commit: %s", key);
+        }
+        return position;
+    }
+
+    /**
+     * 按拓扑序计算 generation，用显式栈避免递归过深
+     */
+    private static int[] computeGenerations(int[] parent1, int[] parent2) {
+        int n = parent1.length;
+        int[] generations = new int[n];
+        int[] stack = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            if (generations[i] != 0) {
+                continue;
+            }
+            int top = 0;
+            stack[top++] = i;
+            while (top > 0) {
+                int c = stack[top - 1];
+                int p1 = parent1[c];
+                int p2 = parent2[c];
+                if (p1 >= 0 && generations[p1] == 0) {
+                    stack[top++] = p1;
+                } else if (p2 >= 0 && generations[p2] == 0) {
+                    stack[top++] = p2;
+                } else {
+                    top -= 1;
+                    int max = 0;
+                    if (p1 >= 0) {
+                        max = generations[p1];
+                    }
+                    if (p2 >= 0) {
+                        max = Math.max(max, generations[p2]);
+                    }
+                    generations[c] = max + 1;
+                }
+            }
+        }
+        return generations;
+    }
+}
@@ -0,0 +1,219 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 全部 commit key 的索引，用于缩写 commit id 的前缀查找，不需要列出 commits 文件夹。
+ * 由两部分组成:
+ * <pre>
+ * commit-index:      "GCIX" | version | fanout[256] | id[20]*count   (有序，内存映射后二分查找)
+ * commit-index.tail: id[20]*                                         (新提交的 commit，追加写入)
+ * </pre>
+ * tail 超过 {@link #TAIL_LIMIT} 个时合并到主索引，因此前缀查找为 O(log n + TAIL_LIMIT)
+ */
+
+public class CommitIndex {
+
+    private static final int MAGIC = 0x47434958;
+
+    private static final int VERSION = 1;
+
+    /**
+     * 文件头长度: magic + version
+     */
+    private static final int HEADER_LENGTH = 8;
+
+    /**
+     * tail 中 commit 个数的上限
+     */
+    private static final int TAIL_LIMIT = 1024;
+
+    private final RepositoryPath repositoryPath;
+
+    /**
+     * 主索引
+     */
+    private ObjectIdTable ids;
+
+    /**
+     * 尚未合并到主索引的 commit
+     */
+    private TreeSet<String> tail;
+
+    public CommitIndex(RepositoryPath repositoryPath) {
+        this.repositoryPath = repositoryPath;
+        if (!load()) {
+            rebuild();
+        }
+    }
+
+    /**
+     * 加载主索引和 tail
+     *
+     * @return 主索引是否存在且有效
+     */
+    private boolean load() {
+        File file = repositoryPath.getCommitIndexFile();
+        if (!file.isFile()) {
+            return false;
+        }
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            return false;
+        }
+        ids = new ObjectIdTable(buffer, HEADER_LENGTH);
+        tail = new TreeSet<>();
+        File tailFile = repositoryPath.getCommitIndexTailFile();
+        if (tailFile.isFile()) {
+            byte[] data = readContents(tailFile);
+            // 忽略写入中断时残留的不完整记录
+            int n = data.length / ObjectIdTable.ID_LENGTH;
+            for (int i = 0; i < n; i += 1) {
+                tail.add(bytesToHex(data, i * ObjectIdTable.ID_LENGTH, ObjectIdTable.ID_LENGTH));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 扫描松散对象和 pack 重建索引
+     */
+    public void rebuild() {
+        Set<String> keys = new TreeSet<>();
+        List<String> looseCommits = plainFilenamesIn(repositoryPath.getCommitsDir());
+        if (looseCommits != null) {
+            for (String key : looseCommits) {
+                if (key.length() == UID_LENGTH && isHex(key)) {
+                    keys.add(key);
+                }
+            }
+        }
+        for (PackFile pack : repositoryPath.getPacks()) {
+            keys.addAll(pack.keys(PackFile.OBJ_COMMIT));
+        }
+        write(new ArrayList<>(keys));
+    }
+
+    /**
+     * 将 tail 合并到主索引
+     */
+    public void merge() {
+        if (!tail.isEmpty()) {
+            write(keys());
+        }
+    }
+
+    /**
+     * 写入新的主索引并清空 tail
+     */
+    private void write(List<String> sortedKeys) {
+        File file = repositoryPath.getCommitIndexFile();
+        File tmp = null;
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            tmp = createTempFileIn(file.getParentFile(), null);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                ObjectIdTable.write(out, sortedKeys);
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+            Files.deleteIfExists(repositoryPath.getCommitIndexTailFile().toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+        load();
+    }
+
+    /**
+     * 添加新的 commit
+     *
+     * @param commitKey 完整的 commit key
+     */
+    public void add(String commitKey) {
+        if (ids.find(commitKey) >= 0 || !tail.add(commitKey)) {
+            return;
+        }
+        try (OutputStream out = new FileOutputStream(
+                repositoryPath.getCommitIndexTailFile(), true)) {
+            out.write(hexToBytes(commitKey));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (tail.size() >= TAIL_LIMIT) {
+            merge();
+        }
+    }
+
+    /**
+     * 找到所有以 prefix 开头的 commit
+     *
+     * @param prefix 前缀
+     * @return 字典序排列的 commit key
+     */
+    public List<String> findByPrefix(String prefix) {
+        if (prefix.isEmpty()) {
+            return keys();
+        }
+        Set<String> res = new TreeSet<>();
+        for (int i : ids.findByPrefix(prefix)) {
+            res.add(ids.getKey(i));
+        }
+        for (String key : tail.tailSet(prefix)) {
+            if (!key.startsWith(prefix)) {
+                break;
+            }
+            res.add(key);
+        }
+        return new ArrayList<>(res);
+    }
+
+    /**
+     * 获取全部 commit key
+     *
+     * @return 字典序排列的 commit key
+     */
+    public List<String> keys() {
+        List<String> res = new ArrayList<>(ids.size() + tail.size());
+        Iterator<String> tailKeys = tail.iterator();
+        String next = tailKeys.hasNext() ? tailKeys.next() : null;
+        for (int i = 0; i < ids.size(); i += 1) {
+            String key = ids.getKey(i);
+            while (next != null && next.compareTo(key) < 0) {
+                res.add(next);
+                next = tailKeys.hasNext() ? tailKeys.next() : null;
+            }
+            if (next != null && next.equals(key)) {
+                next = tailKeys.hasNext() ? tailKeys.next() : null;
+            }
+            res.add(key);
+        }
+        while (next != null) {
+            res.add(next);
+            next = tailKeys.hasNext() ? tailKeys.next() : null;
+        }
+        return res;
+    }
+}
@@ -0,0 +1,235 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 对象的增量编码，用一个基础对象的片段和新插入的字节表示目标对象。
+ * <pre>
+ * delta:  baseLength(varint) | targetLength(varint) | op*
+ * copy:   1xxxxxxx | offset(varint) | length(varint)      从基础对象复制
+ * insert: 0nnnnnnn | byte[n]                              插入 n(1~127) 个字节
+ * </pre>
+ * 基础对象按 {@link #BLOCK} 字节分块建立哈希索引，目标对象用滚动哈希查找相同的块并向两端扩展
+ */
+
+public class Delta {
+
+    /**
+     * 匹配的最小长度
+     */
+    static final int BLOCK = 16;
+
+    private static final int COPY = 0x80;
+
+    private static final int MAX_INSERT = 0x7f;
+
+    /**
+     * 滚动哈希的乘数
+     */
+    private static final int PRIME = 31;
+
+    /**
+     * PRIME ^ (BLOCK - 1)
+     */
+    private static final int TOP_POWER;
+
+    static {
+        int p = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            p *= PRIME;
+        }
+        TOP_POWER = p;
+    }
+
+    /**
+     * 基础对象的块索引，一个基础对象可以用于多个目标对象
+     */
+    public static class Index {
+
+        private final byte[] base;
+
+        /**
+         * 开放寻址哈希表: 块的哈希值和块在基础对象中的偏移 + 1(0 表示空)
+         */
+        private final int[] hashes;
+
+        private final int[] offsets;
+
+        private final int mask;
+
+        public Index(byte[] base) {
+            this.base = base;
+            int blocks = base.length / BLOCK;
+            int capacity = Integer.highestOneBit(Math.max(blocks, 1) * 2 - 1) << 1;
+            this.hashes = new int[capacity];
+            this.offsets = new int[capacity];
+            this.mask = capacity - 1;
+            for (int offset = 0; offset + BLOCK <= base.length; offset += BLOCK) {
+                int h = hash(base, offset);
+                int slot = h & mask;
+                while (offsets[slot] != 0 && hashes[slot] != h) {
+                    slot = (slot + 1) & mask;
+                }
+                // 相同哈希值只保留第一个块
+                if (offsets[slot] == 0) {
+                    hashes[slot] = h;
+                    offsets[slot] = offset + 1;
+                }
+            }
+        }
+
+        public byte[] getBase() {
+            return base;
+        }
+
+        /**
+         * 基础对象和索引占用的内存
+         */
+        public long size() {
+            return base.length + hashes.length * 8L;
+        }
+
+        private int lookup(int h) {
+            int slot = h & mask;
+            while (offsets[slot] != 0) {
+                if (hashes[slot] == h) {
+                    return offsets[slot] - 1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * 计算目标对象相对基础对象的增量
+         *
+         * @param target  目标对象
+         * @param maxSize 增量的长度上限
+         * @return 增量，超过长度上限时返回 null
+         */
+        public byte[] create(byte[] target, int maxSize) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(maxSize, 1 << 16));
+            writeVarint(out, base.length);
+            writeVarint(out, target.length);
+            int insertStart = 0;
+            int i = 0;
+            int h = target.length >= BLOCK ? hash(target, 0) : 0;
+            while (i + BLOCK <= target.length) {
+                int candidate = lookup(h);
+                if (candidate >= 0 && regionEquals(base, candidate, target, i, BLOCK)) {
+                    int length = BLOCK;
+                    while (candidate + length < base.length && i + length < target.length
+                            && base[candidate + length] == target[i + length]) {
+                        length += 1;
+                    }
+                    // 向前扩展到尚未输出的插入部分
+                    int back = 0;
+                    while (back < i - insertStart && back < candidate
+                            && base[candidate - back - 1] == target[i - back - 1]) {
+                        back += 1;
+                    }
+                    writeInsert(out, target, insertStart, i - back);
+                    out.write(COPY);
+                    writeVarint(out, candidate - back);
+                    writeVarint(out, length + back);
+                    i += length;
+                    insertStart = i;
+                    if (out.size() > maxSize) {
+                        return null;
+                    }
+                    if (i + BLOCK <= target.length) {
+                        h = hash(target, i);
+                    }
+                    continue;
+                }
+                if (i + BLOCK < target.length) {
+                    h = (h - (target[i] & 0xff) * TOP_POWER) * PRIME + (target[i + BLOCK] & 0xff);
+                }
+                i += 1;
+            }
+            writeInsert(out, target, insertStart, target.length);
+            return out.size() > maxSize ? null : out.toByteArray();
+        }
+    }
+
+    /**
+     * 由基础对象和增量还原目标对象
+     *
+     * @param base  基础对象
+     * @param delta 增量
+     * @return 目标对象
+     */
+    public static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        if (readVarint(delta, pos) != base.length) {
+            throw new IllegalArgumentException("Delta base length mismatch.");
+        }
+        byte[] target = new byte[(int) readVarint(delta, pos)];
+        int written = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++] & 0xff;
+            if ((op & COPY) != 0) {
+                int offset = (int) readVarint(delta, pos);
+                int length = (int) readVarint(delta, pos);
+                System.arraycopy(base, offset, target, written, length);
+                written += length;
+            } else {
+                System.arraycopy(delta, pos[0], target, written, op);
+                pos[0] += op;
+                written += op;
+            }
+        }
+        if (written != target.length) {
+            throw new IllegalArgumentException("Corrupt delta.");
+        }
+        return target;
+    }
+
+    private static int hash(byte[] data, int offset) {
+        int h = 0;
+        for (int i = 0; i < BLOCK; i += 1) {
+            h = h * PRIME + (data[offset + i] & 0xff);
+        }
+        return h;
+    }
+
+    private static boolean regionEquals(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        for (int i = 0; i < length; i += 1) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data, int from, int to) {
+        while (from < to) {
+            int n = Math.min(MAX_INSERT, to - from);
+            out.write(n);
+            out.write(data, from, n);
+            from += n;
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(byte[] data, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = data[pos[0]++] & 0xff;
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
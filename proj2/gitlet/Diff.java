@@ -0,0 +1,265 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 按行比较两个文件，Myers 差分算法(线性空间的分治版本)。
+ * 先将两个文件的每一行映射为整数编号，内容相同的行编号相同，之后只比较整数；
+ * 每一层先去掉公共的前缀和后缀，再找到中间的 snake 分成两个子问题。
+ * 与 git 相同，编辑距离过大时放弃最短结果，以免大量修改的大文件耗时过长
+ */
+
+public class Diff {
+
+    /**
+     * 一处修改: a[beginA, endA) 被替换为 b[beginB, endB)，两个区间之一可以为空
+     */
+    public static class Edit {
+
+        private final int beginA;
+        private final int endA;
+        private final int beginB;
+        private final int endB;
+
+        Edit(int beginA, int endA, int beginB, int endB) {
+            this.beginA = beginA;
+            this.endA = endA;
+            this.beginB = beginB;
+            this.endB = endB;
+        }
+
+        public int getBeginA() {
+            return beginA;
+        }
+
+        public int getEndA() {
+            return endA;
+        }
+
+        public int getBeginB() {
+            return beginB;
+        }
+
+        public int getEndB() {
+            return endB;
+        }
+    }
+
+    /**
+     * 编辑距离的搜索上限，实际上限为 max(该值, sqrt(两个序列的总长度))
+     */
+    private static final int MIN_COST_LIMIT = 256;
+
+    private final int[] a;
+
+    private final int[] b;
+
+    private final List<Edit> edits = new ArrayList<>();
+
+    /**
+     * Myers 算法的前向和后向的最远位置，按对角线编号(加偏移)索引
+     */
+    private int[] forward;
+    private int[] backward;
+
+    private Diff(int[] a, int[] b) {
+        this.a = a;
+        this.b = b;
+    }
+
+    /**
+     * 比较两个文件
+     *
+     * @param a 原文件
+     * @param b 新文件
+     * @return 按位置排列的修改，相邻的修改已合并
+     */
+    public static List<Edit> diff(RawText a, RawText b) {
+        int[][] ids = intern(a, b);
+        return diff(ids[0], ids[1]);
+    }
+
+    /**
+     * 比较两个整数序列
+     *
+     * @param a 原序列
+     * @param b 新序列
+     * @return 按位置排列的修改，相邻的修改已合并
+     */
+    public static List<Edit> diff(int[] a, int[] b) {
+        Diff diff = new Diff(a, b);
+        int max = (a.length + b.length + 1) / 2 + 2;
+        diff.forward = new int[2 * max + 1];
+        diff.backward = new int[2 * max + 1];
+        diff.compare(0, a.length, 0, b.length);
+        return diff.edits;
+    }
+
+    /**
+     * 将两个文件的行映射为整数编号，内容相同的行编号相同
+     */
+    private static int[][] intern(RawText a, RawText b) {
+        int total = a.size() + b.size();
+        int capacity = Integer.highestOneBit(Math.max(total, 8) * 2 - 1) << 1;
+        int mask = capacity - 1;
+        // 开放寻址: 槽位中保存编号 + 1，编号对应的代表行为 (texts[id], lines[id])
+        int[] slots = new int[capacity];
+        int[] hashes = new int[capacity];
+        RawText[] texts = new RawText[total];
+        int[] lines = new int[total];
+        int next = 0;
+        RawText[] inputs = {a, b};
+        int[][] res = {new int[a.size()], new int[b.size()]};
+        for (int t = 0; t < 2; t += 1) {
+            RawText text = inputs[t];
+            for (int i = 0; i < text.size(); i += 1) {
+                int h = text.lineHash(i);
+                int slot = (h ^ (h >>> 16)) & mask;
+                while (slots[slot] != 0) {
+                    int id = slots[slot] - 1;
+                    if (hashes[slot] == h && text.lineEquals(i, texts[id], lines[id])) {
+                        break;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+                if (slots[slot] == 0) {
+                    texts[next] = text;
+                    lines[next] = i;
+                    hashes[slot] = h;
+                    slots[slot] = ++next;
+                }
+                res[t][i] = slots[slot] - 1;
+            }
+        }
+        return res;
+    }
+
+    private void compare(int beginA, int endA, int beginB, int endB) {
+        while (beginA < endA && beginB < endB && a[beginA] == b[beginB]) {
+            beginA += 1;
+            beginB += 1;
+        }
+        while (beginA < endA && beginB < endB && a[endA - 1] == b[endB - 1]) {
+            endA -= 1;
+            endB -= 1;
+        }
+        if (beginA == endA || beginB == endB) {
+            if (beginA < endA || beginB < endB) {
+                addEdit(beginA, endA, beginB, endB);
+            }
+            return;
+        }
+        int[] split = middleSnake(beginA, endA, beginB, endB);
+        int x = split[0];
+        int y = split[1];
+        if ((x == beginA && y == beginB) || (x == endA && y == endB)) {
+            // 无法继续拆分，整体作为一处修改
+            addEdit(beginA, endA, beginB, endB);
+            return;
+        }
+        compare(beginA, x, beginB, y);
+        compare(x, endA, y, endB);
+    }
+
+    /**
+     * 找到最短编辑路径中间的 snake
+     *
+     * @return snake 的起点 {x, y}
+     */
+    private int[] middleSnake(int beginA, int endA, int beginB, int endB) {
+        int n = endA - beginA;
+        int m = endB - beginB;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2;
+        int offset = max + 1;
+        int costLimit = Math.max(MIN_COST_LIMIT, (int) Math.sqrt(n + m));
+        Arrays.fill(forward, 0, 2 * max + 3, 0);
+        Arrays.fill(backward, 0, 2 * max + 3, 0);
+        for (int d = 0; d <= max; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])
+                        ? forward[offset + k + 1] : forward[offset + k - 1] + 1;
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && a[beginA + x] == b[beginB + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[offset + k] = x;
+                int reverseK = delta - k;
+                if (odd && reverseK >= -(d - 1) && reverseK <= d - 1
+                        && x + backward[offset + reverseK] >= n) {
+                    return new int[]{beginA + startX, beginB + startY};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1])
+                        ? backward[offset + k + 1] : backward[offset + k - 1] + 1;
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && a[endA - 1 - x] == b[endB - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[offset + k] = x;
+                int forwardK = delta - k;
+                if (!odd && forwardK >= -d && forwardK <= d
+                        && x + forward[offset + forwardK] >= n) {
+                    return new int[]{endA - x, endB - y};
+                }
+            }
+            if (d >= costLimit) {
+                return furthestPoint(d, offset, beginA, endA, beginB, endB);
+            }
+        }
+        return new int[]{beginA, beginB};
+    }
+
+    /**
+     * 编辑距离过大时不再寻找最短路径，取前向或后向走得最远的位置拆分，结果不保证最短
+     *
+     * @return 拆分点 {x, y}
+     */
+    private int[] furthestPoint(int d, int offset, int beginA, int endA, int beginB, int endB) {
+        int n = endA - beginA;
+        int m = endB - beginB;
+        int best = -1;
+        int[] res = {beginA, beginB};
+        for (int k = -d; k <= d; k += 2) {
+            int x = forward[offset + k];
+            int y = x - k;
+            if (x <= n && y >= 0 && y <= m && x + y > best) {
+                best = x + y;
+                res = new int[]{beginA + x, beginB + y};
+            }
+            x = backward[offset + k];
+            y = x - k;
+            if (x <= n && y >= 0 && y <= m && x + y > best) {
+                best = x + y;
+                res = new int[]{endA - x, endB - y};
+            }
+        }
+        return res;
+    }
+
+    /**
+     * 记录修改，与上一处相邻时合并
+     */
+    private void addEdit(int beginA, int endA, int beginB, int endB) {
+        if (!edits.isEmpty()) {
+            Edit last = edits.get(edits.size() - 1);
+            if (last.endA == beginA && last.endB == beginB) {
+                edits.set(edits.size() - 1, new Edit(last.beginA, endA, last.beginB, endB));
+                return;
+            }
+        }
+        edits.add(new Edit(beginA, endA, beginB, endB));
+    }
+}
@@ -0,0 +1,74 @@
+package gitlet;
+
+import java.util.List;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 将两个文件的差异格式化为不带上下文的 unified diff。
+ * 区间长度为 1 时省略长度，长度为 0 时起始行号为区间之前的行号
+ * <pre>
+ * diff --git a/f.txt b/f.txt
+ * --- a/f.txt
+ * +++ b/f.txt
+ * &#64;&#64; -2 +3,0 &#64;&#64;
+ * -Line 2.
+ * </pre>
+ */
+
+public class DiffFormatter {
+
+    private static final String DEV_NULL = "/dev/null";
+
+    /**
+     * 格式化一个文件的差异
+     *
+     * @param path 文件名
+     * @param a    原内容，不存在为 null
+     * @param b    新内容，不存在为 null
+     * @return 格式化后的差异，以换行符结尾
+     */
+    public static String format(String path, byte[] a, byte[] b) {
+        String nameA = a == null ? DEV_NULL : "a/" + path;
+        String nameB = b == null ? DEV_NULL : "b/" + path;
+        RawText textA = new RawText(a == null ? new byte[0] : a);
+        RawText textB = new RawText(b == null ? new byte[0] : b);
+        long start = System.nanoTime();
+        List<Diff.Edit> edits = Diff.diff(textA, textB);
+        Stats.add("diff.nanos", System.nanoTime() - start);
+        Stats.add("diff.lines", textA.size() + textB.size());
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("diff --git ").append(nameA).append(' ').append(nameB).append('\n');
+        sb.append("--- ").append(nameA).append('\n');
+        sb.append("+++ ").append(nameB).append('\n');
+        for (Diff.Edit edit : edits) {
+            sb.append("@@ -").append(range(edit.getBeginA(), edit.getEndA()))
+                    .append(" +").append(range(edit.getBeginB(), edit.getEndB()))
+                    .append(" @@\n");
+            appendLines(sb, '-', textA, edit.getBeginA(), edit.getEndA());
+            appendLines(sb, '+', textB, edit.getBeginB(), edit.getEndB());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 区间 [begin, end) 的行号表示
+     */
+    private static String range(int begin, int end) {
+        if (end - begin == 1) {
+            return String.valueOf(begin + 1);
+        }
+        return (end == begin ? begin : begin + 1) + "," + (end - begin);
+    }
+
+    private static void appendLines(StringBuilder sb, char prefix, RawText text,
+                                    int begin, int end) {
+        for (int i = begin; i < end; i += 1) {
+            sb.append(prefix).append(text.getLine(i)).append('\n');
+        }
+        if (end == text.size() && end > begin && text.isMissingNewlineAtEnd()) {
+            sb.append("\\ No newline at end of file\n");
+        }
+    }
+}
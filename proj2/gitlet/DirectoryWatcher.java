@@ -0,0 +1,226 @@
+package gitlet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 基于 WatchService 监听目录树中发生变化的路径。WatchService 不支持递归监听，
+ * 注册时遍历全部子目录，新建的子目录在收到事件时注册，其中已有的文件一并视为变化。
+ * WatchService 的每个目录最多积压 512 个事件，超出后只剩溢出事件，因此由后台线程持续取出事件。
+ * 事件异步送达，{@link #sync()} 在 cookie 目录中新建一个 cookie 文件并等待它的事件，
+ * 同一个 WatchService 的事件有序，因此 sync 返回时，之前发生的修改都已经收到
+ */
+
+public class DirectoryWatcher implements Closeable {
+
+    private static final String COOKIE_PREFIX = ".gitlet-cookie-";
+
+    /**
+     * 等待 cookie 事件的时间，超时视为事件溢出
+     */
+    private static final long SYNC_TIMEOUT_MILLIS = 2000;
+
+    private final WatchService watchService;
+
+    private final Path cookieDir;
+
+    /**
+     * k: 已注册的目录, v: 目录
+     */
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+
+    /**
+     * k: 监听的根目录, v: 是否监听该目录(及其子目录)
+     */
+    private final Map<Path, Predicate<Path>> roots = new LinkedHashMap<>();
+
+    /**
+     * 上次取出后发生变化的路径
+     */
+    private Set<Path> changed = new HashSet<>();
+
+    private boolean overflow;
+
+    private long cookies;
+
+    /**
+     * 正在等待的 cookie 及是否已经收到它的创建事件
+     */
+    private Path cookie;
+    private boolean cookieSeen;
+
+    /**
+     * @param cookieDir 存放 cookie 文件的目录，必须在监听范围内
+     */
+    public DirectoryWatcher(Path cookieDir) throws IOException {
+        this.cookieDir = cookieDir.toAbsolutePath();
+        this.watchService = cookieDir.getFileSystem().newWatchService();
+        Thread thread = new Thread(this::run, "gitlet-watch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 后台线程: 取出事件直到 WatchService 关闭
+     */
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                synchronized (this) {
+                    process(key);
+                    notifyAll();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException excp) {
+            // 关闭
+        }
+    }
+
+    /**
+     * 监听目录树
+     *
+     * @param root   根目录
+     * @param filter 返回 false 的目录连同子目录不监听
+     */
+    public synchronized void watch(Path root, Predicate<Path> filter) throws IOException {
+        root = root.toAbsolutePath();
+        roots.put(root, filter);
+        register(root, filter, false);
+    }
+
+    private void register(Path dir, Predicate<Path> filter, boolean created) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs)
+                    throws IOException {
+                if (!filter.test(d)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                try {
+                    keys.put(d.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), d);
+                } catch (NoSuchFileException excp) {
+                    // 遍历时被删除的目录，删除事件会在之后收到
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                Stats.increment("watch.dirs");
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (created) {
+                    changed.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException excp) {
+                // 遍历时被删除的文件，删除事件会在之后收到
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * 等待此前发生的修改全部送达后，取出发生变化的路径
+     *
+     * @return 变化的路径(绝对路径)，事件溢出或等待超时时返回 null，此时需要全部重新扫描
+     */
+    public synchronized Set<Path> sync() {
+        cookie = cookieDir.resolve(COOKIE_PREFIX + ProcessHandle.current().pid()
+                + "-" + cookies++);
+        cookieSeen = false;
+        try {
+            Files.createFile(cookie);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SYNC_TIMEOUT_MILLIS);
+            while (!cookieSeen) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    overflow = true;
+                    break;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        } catch (IOException excp) {
+            overflow = true;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            overflow = true;
+        } finally {
+            try {
+                Files.deleteIfExists(cookie);
+            } catch (IOException excp) {
+                // 下次 sync 使用新的 cookie
+            }
+            cookie = null;
+        }
+        Stats.increment("watch.syncs");
+        Set<Path> res = overflow ? null : changed;
+        changed = new HashSet<>();
+        overflow = false;
+        return res;
+    }
+
+    /**
+     * 处理一个目录的事件
+     */
+    private void process(WatchKey key) {
+        Path dir = keys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW || dir == null) {
+                overflow = true;
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (dir.equals(cookieDir) && path.getFileName().toString().startsWith(COOKIE_PREFIX)) {
+                cookieSeen |= path.equals(cookie) && event.kind() == ENTRY_CREATE;
+                continue;
+            }
+            Stats.increment("watch.events");
+            changed.add(path);
+            if (event.kind() == ENTRY_CREATE
+                    && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                registerCreated(path);
+            }
+        }
+        if (!key.reset()) {
+            keys.remove(key);
+        }
+    }
+
+    /**
+     * 按包含该目录的最近的根目录的规则注册新建的目录
+     */
+    private void registerCreated(Path dir) {
+        Path best = null;
+        for (Path root : roots.keySet()) {
+            if (dir.startsWith(root) && (best == null || root.startsWith(best))) {
+                best = root;
+            }
+        }
+        if (best == null) {
+            return;
+        }
+        try {
+            register(dir, roots.get(best), true);
+        } catch (IOException excp) {
+            overflow = true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
@@ -0,0 +1,92 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 在 fork-join 线程池中并行遍历工作目录，列出其中未被忽略的文件。
+ * 每个目录是一个任务，子目录分叉为新的任务，当前目录的文件在本任务中处理。
+ * 被忽略的目录在进入前剪枝，其中的条目不会被读取；.gitlet 和指向目录的符号链接不进入
+ */
+
+public class FileWalk extends RecursiveTask<List<String>> {
+
+    private final File cwd;
+
+    /**
+     * 相对工作目录的路径，以 / 分隔，工作目录本身为空字符串
+     */
+    private final String dir;
+
+    private final IgnoreRules ignoreRules;
+
+    private FileWalk(File cwd, String dir, IgnoreRules ignoreRules) {
+        this.cwd = cwd;
+        this.dir = dir;
+        this.ignoreRules = ignoreRules;
+    }
+
+    /**
+     * 列出目录及其子目录中的文件
+     *
+     * @param cwd         工作目录
+     * @param dir         要遍历的目录，相对工作目录，以 / 分隔，工作目录本身为空字符串
+     * @param ignoreRules 忽略规则，只检查 dir 之下的路径
+     * @return 文件相对工作目录的路径，无序
+     */
+    public static List<String> walk(File cwd, String dir, IgnoreRules ignoreRules) {
+        return ForkJoinPool.commonPool().invoke(new FileWalk(cwd, dir, ignoreRules));
+    }
+
+    @Override
+    protected List<String> compute() {
+        List<String> files = new ArrayList<>();
+        List<FileWalk> subdirs = new ArrayList<>();
+        Path path = dir.isEmpty() ? cwd.toPath() : cwd.toPath().resolve(dir);
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                String child = dir.isEmpty() ? name : dir + "/" + name;
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(entry, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException excp) {
+                    // 遍历时被删除
+                    continue;
+                }
+                if (attrs.isDirectory()) {
+                    if (!(dir.isEmpty() && name.equals(".gitlet"))
+                            && !ignoreRules.isIgnored(child, true)) {
+                        FileWalk subdir = new FileWalk(cwd, child, ignoreRules);
+                        subdir.fork();
+                        subdirs.add(subdir);
+                    }
+                } else if ((attrs.isRegularFile()
+                        || attrs.isSymbolicLink() && Files.isRegularFile(entry))
+                        && !ignoreRules.isIgnored(child, false)) {
+                    files.add(child);
+                }
+            }
+        } catch (IOException | DirectoryIteratorException excp) {
+            // 遍历时被删除的目录，已经分叉的子目录照常汇总
+        }
+        Stats.increment("worktree.walk.dirs");
+        for (FileWalk subdir : subdirs) {
+            files.addAll(subdir.join());
+        }
+        return files;
+    }
+}
@@ -0,0 +1,289 @@
+package gitlet;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote gitlet daemon 在 .gitlet/daemon.sock 上监听 Unix domain socket，在同一个 JVM 中依次执行命令，
+ * 保留 {@link RepositoryPath} 中已加载的引用、暂存区、pack、索引和对象缓存，省去每条命令的 JVM 启动和缓存预热。
+ * daemon 运行时，命令行的 {@link Main} 只把参数转发给 daemon 并输出结果。
+ * .gitlet 和工作目录(包括未被忽略的子目录)中的修改由 {@link DirectoryWatcher} 监听，
+ * 每次加锁后同步一次事件并丢弃对应的缓存，status 只重新检查收到事件的文件(见 {@link WorkingTree})。
+ * 协议:
+ * <pre>
+ * 请求: version(4) | argc(4) | {arg}*
+ * 响应: {'o' | length(4) | 标准输出 或 'e' | length(4) | 标准错误}* 'x' | 退出码(4)
+ * </pre>
+ */
+
+public class GitletDaemon {
+
+    private static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final byte STDOUT = 'o';
+    private static final byte STDERR = 'e';
+    private static final byte EXIT = 'x';
+
+    private final RepositoryPath repositoryPath;
+
+    private DirectoryWatcher watcher;
+
+    public GitletDaemon(RepositoryPath repositoryPath) {
+        this.repositoryPath = repositoryPath;
+    }
+
+    /**
+     * daemon 的 socket 文件
+     *
+     * @param gitletDir .gitlet 目录
+     */
+    public static File getSocketFile(File gitletDir) {
+        return join(gitletDir, "daemon.sock");
+    }
+
+    /**
+     * 监听 socket 并依次执行命令，.gitlet 被删除后退出
+     */
+    public void serve() {
+        File gitletDir = repositoryPath.getGitletDir();
+        File socket = getSocketFile(gitletDir);
+        if (socket.exists()) {
+            try (SocketChannel ignored = SocketChannel.open(
+                    UnixDomainSocketAddress.of(socket.toPath()))) {
+                errorAndExit("A daemon is already running.");
+            } catch (IOException excp) {
+                // 上次 daemon 异常退出留下的 socket
+                socket.delete();
+            }
+        }
+        Set<Path> skipped = Set.of(repositoryPath.getCommitsDir().toPath(),
+                repositoryPath.getTreesDir().toPath(), repositoryPath.getBlobsDir().toPath(),
+                repositoryPath.getLocksDir().toPath());
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+             DirectoryWatcher w = new DirectoryWatcher(gitletDir.toPath())) {
+            // 松散对象按内容寻址，不会失效，不监听
+            w.watch(gitletDir.toPath(), dir -> !skipped.contains(dir.toAbsolutePath()));
+            watcher = w;
+            watchWorkingTree();
+            server.bind(UnixDomainSocketAddress.of(socket.toPath()));
+            Runtime.getRuntime().addShutdownHook(new Thread(socket::delete));
+            repositoryPath.setLockListener(this::sync);
+            message("Daemon listening on %s.", socket.getPath());
+            while (gitletDir.isDirectory()) {
+                try (SocketChannel channel = server.accept()) {
+                    handle(channel);
+                } catch (IOException excp) {
+                    // 客户端断开时只结束该连接
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            repositoryPath.setLockListener(null);
+            socket.delete();
+        }
+    }
+
+    private void handle(SocketChannel channel) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+        if (in.readInt() != VERSION) {
+            return;
+        }
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        int status = execute(args, out);
+        out.writeByte(EXIT);
+        out.writeInt(status);
+        out.flush();
+    }
+
+    /**
+     * 执行一条命令，标准输出和标准错误写入连接
+     *
+     * @return 退出码
+     */
+    private int execute(String[] args, DataOutputStream out) {
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        PrintStream commandOut = new PrintStream(new BufferedOutputStream(
+                new FrameOutputStream(out, STDOUT), BUFFER_SIZE));
+        PrintStream commandErr = new PrintStream(new BufferedOutputStream(
+                new FrameOutputStream(out, STDERR), BUFFER_SIZE));
+        System.setOut(commandOut);
+        System.setErr(commandErr);
+        Stats.disable();
+        Stats.reset();
+        int status = 0;
+        try {
+            sync();
+            Main.execute(args);
+        } catch (CommandExit excp) {
+            // 命令中途结束，丢弃内存中尚未保存的修改
+            status = excp.getStatus();
+            repositoryPath.invalidate(null);
+        } catch (RuntimeException excp) {
+            excp.printStackTrace();
+            status = 1;
+            repositoryPath.invalidate(null);
+        } finally {
+            commandOut.flush();
+            commandErr.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        return status;
+    }
+
+    /**
+     * 取出发生变化的文件，丢弃 .gitlet 中对应的缓存，工作目录中的文件在下次 status 时重新检查
+     */
+    private void sync() {
+        Set<Path> changed = watcher.sync();
+        if (changed == null) {
+            repositoryPath.invalidate(null);
+            repositoryPath.getWorkingTree().invalidateAll();
+            return;
+        }
+        Path gitletDir = repositoryPath.getGitletDir().toPath().toAbsolutePath();
+        Path cwd = repositoryPath.getCwd().toPath().toAbsolutePath();
+        for (Path path : changed) {
+            if (path.startsWith(gitletDir)) {
+                repositoryPath.invalidate(relativize(gitletDir, path));
+            } else {
+                repositoryPath.getWorkingTree().invalidate(relativize(cwd, path));
+            }
+        }
+        if (changed.contains(cwd.resolve(IgnoreRules.FILE_NAME))) {
+            // 不再被忽略的目录需要重新注册
+            try {
+                watchWorkingTree();
+            } catch (IOException excp) {
+                throw error("Failed to watch working tree: %s", excp.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 监听工作目录中除 .gitlet 和被忽略的目录之外的全部子目录。
+     * 已注册的目录重复注册不会产生新的监听
+     */
+    private void watchWorkingTree() throws IOException {
+        Path gitletDir = repositoryPath.getGitletDir().toPath().toAbsolutePath();
+        Path cwd = repositoryPath.getCwd().toPath().toAbsolutePath();
+        WorkingTree workingTree = repositoryPath.getWorkingTree();
+        watcher.watch(cwd, dir -> dir.equals(cwd) || !dir.equals(gitletDir)
+                && !workingTree.getIgnoreRules().isIgnored(relativize(cwd, dir), true));
+    }
+
+    private static String relativize(Path dir, Path path) {
+        return dir.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * 把命令交给 .gitlet 对应的 daemon 执行
+     *
+     * @param gitletDir .gitlet 目录
+     * @param args      命令参数
+     * @param stdout    命令的标准输出
+     * @param stderr    命令的标准错误
+     * @return 命令的退出码，没有运行中的 daemon 时返回 -1
+     */
+    public static int forward(File gitletDir, String[] args, OutputStream stdout,
+                              OutputStream stderr) {
+        File socket = getSocketFile(gitletDir);
+        if (!socket.exists()) {
+            return -1;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(socket.toPath()));
+        } catch (IOException excp) {
+            // daemon 已经退出，在本进程中执行
+            return -1;
+        }
+        try (SocketChannel c = channel) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(c)));
+            out.writeInt(VERSION);
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(c), BUFFER_SIZE));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int type = in.readByte(); type != EXIT; type = in.readByte()) {
+                OutputStream target = type == STDERR ? stderr : stdout;
+                for (int length = in.readInt(); length > 0; ) {
+                    int n = in.read(buffer, 0, Math.min(length, buffer.length));
+                    if (n < 0) {
+                        throw new EOFException();
+                    }
+                    target.write(buffer, 0, n);
+                    length -= n;
+                }
+            }
+            int status = in.readInt();
+            stdout.flush();
+            stderr.flush();
+            return status;
+        } catch (IOException excp) {
+            // 命令可能已经执行，不能在本进程中重新执行
+            System.err.println("Lost connection to gitlet daemon: " + excp.getMessage());
+            return 1;
+        }
+    }
+
+    /**
+     * 把写入的数据分帧写入连接
+     */
+    private static class FrameOutputStream extends OutputStream {
+
+        private final DataOutputStream out;
+
+        private final byte type;
+
+        FrameOutputStream(DataOutputStream out, byte type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            out.writeByte(type);
+            out.writeInt(len);
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
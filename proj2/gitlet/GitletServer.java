@@ -0,0 +1,256 @@
+package gitlet;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static gitlet.BinaryCodec.*;
+import static gitlet.Utils.*;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote gitlet serve 服务端，为根目录下的仓库提供 {@link NetworkProtocol} 的 push 和 fetch。
+ * 每个连接由一个线程处理，gitlet://host:port/path 访问根目录下 path 处的仓库，不允许访问根目录之外的路径。
+ * fetch 遍历对象时对仓库的 objects 加共享锁；push 接收对象、写入 pack 和索引、更新分支时
+ * 还对 stage 加排他锁，与 gc、repack 以及在该仓库中直接运行的命令互斥。
+ * FileChannel 的锁属于整个进程，同一仓库的 objects 共享锁由各连接共用，stage 锁由 push 依次持有。
+ * 协议没有认证，默认只监听本机回环地址
+ */
+
+public class GitletServer {
+
+    private static final int READ_TIMEOUT = 60000;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File root;
+
+    private final InetAddress address;
+
+    private final int port;
+
+    /**
+     * k: 仓库目录, v: 该仓库在本进程中持有的锁
+     */
+    private final Map<File, ServedRepository> repositories = new HashMap<>();
+
+    /**
+     * @param root    根目录
+     * @param address 监听地址
+     * @param port    监听端口
+     */
+    public GitletServer(File root, InetAddress address, int port) {
+        this.root = root;
+        this.address = address;
+        this.port = port;
+    }
+
+    /**
+     * 监听端口并处理连接，不会返回
+     */
+    public void serve() {
+        ExecutorService pool = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "gitlet-serve");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (ServerSocket server = new ServerSocket(port, 0, address)) {
+            message("Serving %s on %s port %d.", root.getPath(),
+                    address.getHostAddress(), server.getLocalPort());
+            while (true) {
+                Socket socket = server.accept();
+                pool.execute(() -> handle(socket));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * 处理一个连接，出错时只断开该连接
+     */
+    private void handle(Socket socket) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            s.setSoTimeout(READ_TIMEOUT);
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(s.getInputStream(), BUFFER_SIZE));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(s.getOutputStream(), BUFFER_SIZE));
+            if (in.readInt() != NetworkProtocol.MAGIC || in.readInt() != NetworkProtocol.VERSION) {
+                NetworkProtocol.writeStatus(out, "Unsupported protocol version.");
+                out.flush();
+                return;
+            }
+            RepositoryPath repositoryPath = resolve(readString(in, NetworkProtocol.MAX_STRING_LENGTH));
+            if (repositoryPath == null) {
+                NetworkProtocol.writeStatus(out, "Remote directory not found.");
+                out.flush();
+                return;
+            }
+            NetworkProtocol.writeStatus(out, null);
+            Map<String, String> branches = repositoryPath.getBranches();
+            out.writeInt(branches.size());
+            for (Map.Entry<String, String> branch : branches.entrySet()) {
+                writeString(out, branch.getKey());
+                writeId(out, branch.getValue());
+            }
+            out.flush();
+            int service = in.read();
+            if (service == NetworkProtocol.FETCH) {
+                serveFetch(in, out, repositoryPath);
+            } else if (service == NetworkProtocol.PUSH) {
+                servePush(in, out, repositoryPath);
+            }
+        } catch (IOException | RuntimeException excp) {
+            System.err.println(socket.getRemoteSocketAddress() + ": " + excp.getMessage());
+        }
+    }
+
+    /**
+     * 根目录下的仓库
+     *
+     * @param path 相对根目录的路径
+     * @return 仓库路径，不存在或在根目录之外返回 null
+     */
+    private RepositoryPath resolve(String path) throws IOException {
+        File rootDir = root.getCanonicalFile();
+        File dir = new File(rootDir, path).getCanonicalFile();
+        if (!dir.toPath().startsWith(rootDir.toPath()) || !join(dir, ".gitlet").isDirectory()) {
+            return null;
+        }
+        RepositoryPath repositoryPath = new RepositoryPath(dir);
+        synchronized (this) {
+            repositoryPath.recover();
+        }
+        return repositoryPath;
+    }
+
+    private void serveFetch(DataInputStream in, DataOutputStream out,
+                            RepositoryPath repositoryPath) throws IOException {
+        String want = readId(in);
+        int count = in.readInt();
+        Set<String> haves = new HashSet<>();
+        for (int i = 0; i < count; i += 1) {
+            haves.add(readId(in));
+        }
+        ServedRepository served = served(repositoryPath);
+        served.lockObjects();
+        try {
+            if (!repositoryPath.hasCommit(want)) {
+                NetworkProtocol.writeStatus(out, "That remote does not have that commit.");
+                out.flush();
+                return;
+            }
+            NetworkProtocol.writeStatus(out, null);
+            NetworkProtocol.writeObjects(out, repositoryPath,
+                    new ObjectWalk(repositoryPath, want, haves));
+        } finally {
+            served.unlockObjects();
+        }
+    }
+
+    private void servePush(DataInputStream in, DataOutputStream out,
+                           RepositoryPath repositoryPath) throws IOException {
+        String branchName = readString(in, NetworkProtocol.MAX_STRING_LENGTH);
+        String commitKey = readId(in);
+        if (!RepositoryPath.isValidBranchName(branchName)) {
+            // 读完对象流但不写入，客户端读取状态前不会断开
+            NetworkProtocol.skipObjects(in);
+            NetworkProtocol.writeStatus(out, "Invalid branch name.");
+            out.flush();
+            return;
+        }
+        String error;
+        ServedRepository served = served(repositoryPath);
+        served.lockObjects();
+        try {
+            // 同一仓库的 push 依次执行，stage 锁与在该仓库中直接运行的命令互斥
+            synchronized (served.pushes) {
+                RepositoryLock lock = new RepositoryLock(repositoryPath);
+                try {
+                    lock.exclusive(RepositoryLock.STAGE);
+                    NetworkProtocol.readObjects(in, repositoryPath);
+                    // 分支只能指向历史、目录和 blob 都已存在的 commit
+                    if (!repositoryPath.isConnected(commitKey)) {
+                        error = "Missing objects for " + commitKey + ".";
+                    } else {
+                        lock.exclusiveBranches(branchName);
+                        error = updateBranch(repositoryPath, branchName, commitKey);
+                    }
+                } finally {
+                    lock.releaseAll();
+                }
+            }
+        } finally {
+            served.unlockObjects();
+        }
+        NetworkProtocol.writeStatus(out, error);
+        out.flush();
+    }
+
+    private ServedRepository served(RepositoryPath repositoryPath) {
+        synchronized (repositories) {
+            return repositories.computeIfAbsent(repositoryPath.getCwd(),
+                k -> new ServedRepository(repositoryPath));
+        }
+    }
+
+    private static String updateBranch(RepositoryPath repositoryPath, String branchName,
+                                       String commitKey) {
+        String remoteBranch = repositoryPath.getBranch(branchName);
+        if (remoteBranch != null && !repositoryPath.getCommitGraph()
+                .isAncestor(remoteBranch, commitKey)) {
+            return "Please pull down remote changes before pushing.";
+        }
+        repositoryPath.saveBranch(branchName, commitKey);
+        repositoryPath.flush();
+        return null;
+    }
+
+    /**
+     * 一个仓库在本进程中持有的锁。objects 的共享锁在第一个连接使用时加锁，最后一个连接结束时释放
+     */
+    private static class ServedRepository {
+
+        private final RepositoryPath repositoryPath;
+
+        /**
+         * push 持有 stage 锁期间加锁
+         */
+        private final Object pushes = new Object();
+
+        private RepositoryLock objectsLock;
+
+        private int users;
+
+        ServedRepository(RepositoryPath repositoryPath) {
+            this.repositoryPath = repositoryPath;
+        }
+
+        synchronized void lockObjects() {
+            if (users == 0) {
+                RepositoryLock lock = new RepositoryLock(repositoryPath);
+                lock.shared(RepositoryLock.OBJECTS);
+                objectsLock = lock;
+            }
+            users += 1;
+        }
+
+        synchronized void unlockObjects() {
+            users -= 1;
+            if (users == 0) {
+                objectsLock.releaseAll();
+                objectsLock = null;
+            }
+        }
+    }
+}
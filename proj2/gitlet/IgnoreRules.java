@@ -0,0 +1,163 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 工作目录根下 .gitletignore 中的忽略规则，语法是 .gitignore 的子集:
+ * <ul>
+ *     <li>空行和 # 开头的行忽略</li>
+ *     <li>! 开头的规则重新包含之前忽略的路径，后面的规则优先</li>
+ *     <li>/ 结尾的规则只匹配目录</li>
+ *     <li>不含 / 的规则匹配任意层级的文件名或目录名，含 / 的规则从工作目录根开始匹配完整路径</li>
+ *     <li>* 和 ? 不匹配 /，** 匹配任意层级</li>
+ * </ul>
+ * 读取时每条规则编译一次，不含通配符的规则直接比较字符串，其余编译为 {@link PathMatcher}。
+ * 和 git 一样，被忽略的目录不会进入，其中的文件不能被 ! 规则重新包含
+ */
+
+public class IgnoreRules {
+
+    /**
+     * 忽略文件名
+     */
+    public static final String FILE_NAME = ".gitletignore";
+
+    private static final IgnoreRules EMPTY = new IgnoreRules(Collections.emptyList());
+
+    private final List<Rule> rules;
+
+    private IgnoreRules(List<Rule> rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * 读取工作目录中的忽略文件
+     *
+     * @param cwd 工作目录
+     * @return 忽略规则，没有忽略文件时为空
+     */
+    public static IgnoreRules load(File cwd) {
+        File file = join(cwd, FILE_NAME);
+        if (!file.isFile()) {
+            return EMPTY;
+        }
+        return parse(readContentsAsString(file).split("\r?\n"));
+    }
+
+    /**
+     * 编译忽略规则
+     *
+     * @param lines 忽略文件的每一行
+     * @return 忽略规则
+     */
+    public static IgnoreRules parse(String... lines) {
+        List<Rule> rules = new ArrayList<>();
+        for (String line : lines) {
+            String pattern = line.strip();
+            if (pattern.isEmpty() || pattern.startsWith("#")) {
+                continue;
+            }
+            boolean negated = pattern.startsWith("!");
+            if (negated) {
+                pattern = pattern.substring(1);
+            }
+            boolean directoryOnly = pattern.endsWith("/");
+            if (directoryOnly) {
+                pattern = pattern.substring(0, pattern.length() - 1);
+            }
+            boolean anchored = pattern.contains("/");
+            if (pattern.startsWith("/")) {
+                pattern = pattern.substring(1);
+            }
+            if (!pattern.isEmpty()) {
+                rules.add(new Rule(pattern, negated, directoryOnly, anchored));
+            }
+        }
+        return rules.isEmpty() ? EMPTY : new IgnoreRules(rules);
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    /**
+     * 路径本身是否被忽略，不检查上层目录
+     *
+     * @param path      相对工作目录的路径，以 / 分隔
+     * @param directory 路径是否为目录
+     */
+    public boolean isIgnored(String path, boolean directory) {
+        if (rules.isEmpty()) {
+            return false;
+        }
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        // 最后一条匹配的规则决定结果
+        for (int i = rules.size() - 1; i >= 0; i -= 1) {
+            Rule rule = rules.get(i);
+            if (rule.matches(path, name, directory)) {
+                return !rule.negated;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 文件或它所在的某一层目录是否被忽略
+     *
+     * @param path 文件相对工作目录的路径，以 / 分隔
+     */
+    public boolean isExcluded(String path) {
+        if (rules.isEmpty()) {
+            return false;
+        }
+        for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', slash + 1)) {
+            if (isIgnored(path.substring(0, slash), true)) {
+                return true;
+            }
+        }
+        return isIgnored(path, false);
+    }
+
+    private static class Rule {
+
+        private final String literal;
+
+        private final PathMatcher matcher;
+
+        private final boolean negated;
+
+        private final boolean directoryOnly;
+
+        /**
+         * 是否匹配完整路径，否则只匹配文件名
+         */
+        private final boolean anchored;
+
+        Rule(String pattern, boolean negated, boolean directoryOnly, boolean anchored) {
+            boolean glob = pattern.chars().anyMatch(c -> "*?[{\\".indexOf(c) >= 0);
+            this.literal = glob ? null : pattern;
+            this.matcher = glob ? FileSystems.getDefault().getPathMatcher("glob:" + pattern) : null;
+            this.negated = negated;
+            this.directoryOnly = directoryOnly;
+            this.anchored = anchored;
+        }
+
+        boolean matches(String path, String name, boolean directory) {
+            if (directoryOnly && !directory) {
+                return false;
+            }
+            String target = anchored ? path : name;
+            return literal != null ? literal.equals(target) : matcher.matches(Path.of(target));
+        }
+    }
+}
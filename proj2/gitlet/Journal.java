@@ -0,0 +1,345 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import static gitlet.Utils.*;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 引用(HEAD、分支、远程分支、remote)和暂存区的预写日志。
+ * 所有引用都先写入临时文件再重命名，读取时只会看到旧内容或新内容。
+ * 持久化程度由 -Dgitlet.durability 选择:
+ * <pre>
+ * sync:    每次写入后立即 fsync 文件和所在目录
+ * batched: 每次写入前先追加到 journal，重命名引用前 fsync 此前新写入的对象，
+ *          命令结束时统一 fsync journal(默认)
+ * unsafe:  只保证原子替换，不 fsync
+ * </pre>
+ * journal 记录: length(4) | crc32(4) | path | deleted(1) | content。
+ * 命令开始时重放 journal 中每个文件的最后一条记录，修复系统崩溃后丢失的重命名；
+ * journal 超过 {@link #CHECKPOINT_LIMIT} 或切换到其他模式时，fsync 其中的文件后删除
+ */
+
+public class Journal {
+
+    /**
+     * 持久化模式
+     */
+    public enum Mode {
+        SYNC, BATCHED, UNSAFE;
+
+        /**
+         * 从 gitlet.durability 系统属性读取，默认为 batched
+         */
+        static Mode fromProperty() {
+            String mode = System.getProperty("gitlet.durability", "batched");
+            try {
+                return valueOf(mode.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException excp) {
+                throw error("Unknown durability mode: %s", mode);
+            }
+        }
+    }
+
+    /**
+     * journal 达到该大小时写回并删除
+     */
+    private static final long CHECKPOINT_LIMIT = 1 << 20;
+
+    private static final Object JOURNAL_LOCK = new Object();
+
+    private final RepositoryPath repositoryPath;
+
+    private final Mode mode;
+
+    /**
+     * 本次命令中写入的对象文件，batched 模式下在下一次引用写入或 {@link #commit()} 时统一 fsync
+     */
+    private final Set<File> pendingObjects = new LinkedHashSet<>();
+
+    /**
+     * journal 中是否有尚未 fsync 的记录
+     */
+    private boolean dirty;
+
+    public Journal(RepositoryPath repositoryPath, Mode mode) {
+        this.repositoryPath = repositoryPath;
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * 原子写入引用或暂存区
+     *
+     * @param file    目标文件
+     * @param content 文件内容
+     */
+    public void write(File file, byte[] content) {
+        if (mode == Mode.BATCHED) {
+            // 引用可能指向刚写入的对象，重命名前对象必须已经落盘
+            syncPendingObjects();
+            locked(() -> append(file, content));
+        }
+        writeContentsAtomic(file, content);
+        if (mode == Mode.SYNC) {
+            fsync(file);
+            fsync(file.getParentFile());
+        }
+        Stats.increment("journal.writes");
+    }
+
+    /**
+     * 删除引用
+     *
+     * @param file 目标文件
+     */
+    public void delete(File file) {
+        if (mode == Mode.BATCHED) {
+            locked(() -> append(file, null));
+        }
+        file.delete();
+        if (mode == Mode.SYNC) {
+            fsync(file.getParentFile());
+        }
+    }
+
+    /**
+     * 记录新写入的对象文件。sync 模式下立即 fsync，batched 模式下在下一次写入引用之前 fsync，
+     * 保证引用指向的对象先于引用落盘
+     *
+     * @param file 对象文件
+     */
+    public void objectWritten(File file) {
+        if (mode == Mode.SYNC) {
+            fsync(file);
+            fsync(file.getParentFile());
+        } else if (mode == Mode.BATCHED) {
+            synchronized (pendingObjects) {
+                pendingObjects.add(file);
+            }
+        }
+    }
+
+    /**
+     * 立即 fsync，用于删除旧文件之前必须落盘的文件，如 repack 生成的 pack
+     *
+     * @param files 文件
+     */
+    public void syncNow(File... files) {
+        if (mode == Mode.UNSAFE) {
+            return;
+        }
+        Set<File> dirs = new LinkedHashSet<>();
+        for (File file : files) {
+            fsync(file);
+            dirs.add(file.getParentFile());
+        }
+        dirs.forEach(Journal::fsync);
+    }
+
+    /**
+     * fsync 尚未落盘的对象文件及其所在目录
+     */
+    private void syncPendingObjects() {
+        File[] objects;
+        synchronized (pendingObjects) {
+            if (pendingObjects.isEmpty()) {
+                return;
+            }
+            objects = pendingObjects.toArray(new File[0]);
+            pendingObjects.clear();
+        }
+        syncNow(objects);
+    }
+
+    /**
+     * 组提交: fsync 本次命令写入的对象，再 fsync 一次 journal
+     */
+    public void commit() {
+        if (mode != Mode.BATCHED) {
+            return;
+        }
+        syncPendingObjects();
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        Stats.increment("journal.commits");
+        // 其他进程可能已经 checkpoint 并删除 journal，此时本进程的记录已经随之落盘
+        locked(() -> {
+            File journal = repositoryPath.getJournalFile();
+            if (!journal.isFile()) {
+                return;
+            }
+            fsync(journal);
+            if (journal.length() >= CHECKPOINT_LIMIT) {
+                checkpoint();
+            }
+        });
+    }
+
+    /**
+     * 命令开始时调用: 重放 journal，内容与 journal 不一致的文件重新写入。
+     * 非 batched 模式之后的写入不经过 journal，因此写回后删除 journal
+     */
+    public void recover() {
+        if (repositoryPath.getJournalFile().isFile()) {
+            locked(this::replay);
+        }
+    }
+
+    private void replay() {
+        File journal = repositoryPath.getJournalFile();
+        for (Map.Entry<File, byte[]> entry : readRecords(journal).entrySet()) {
+            File file = entry.getKey();
+            byte[] content = entry.getValue();
+            if (content == null) {
+                if (file.exists()) {
+                    file.delete();
+                    Stats.increment("journal.replayed");
+                }
+            } else if (!file.isFile() || !Arrays.equals(readContents(file), content)) {
+                File parent = file.getParentFile();
+                if (!parent.isDirectory()) {
+                    parent.mkdirs();
+                }
+                writeContentsAtomic(file, content);
+                Stats.increment("journal.replayed");
+            }
+        }
+        if (mode != Mode.BATCHED) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * fsync journal 中的全部文件后删除 journal
+     */
+    private void checkpoint() {
+        File journal = repositoryPath.getJournalFile();
+        Set<File> dirs = new LinkedHashSet<>();
+        for (File file : readRecords(journal).keySet()) {
+            if (file.isFile() && mode != Mode.UNSAFE) {
+                fsync(file);
+            }
+            dirs.add(file.getParentFile());
+        }
+        if (mode != Mode.UNSAFE) {
+            dirs.stream().filter(File::isDirectory).forEach(Journal::fsync);
+        }
+        journal.delete();
+        Stats.increment("journal.checkpoints");
+    }
+
+    /**
+     * 持有 journal 的排他锁执行，锁文件与 journal 分开，删除 journal 不影响其他进程加锁。
+     * 同一进程中的多个仓库对象(如 gitlet serve)之间通过 JOURNAL_LOCK 互斥
+     */
+    private void locked(Runnable action) {
+        File file = join(repositoryPath.getLocksDir(), "journal.lock");
+        synchronized (JOURNAL_LOCK) {
+            file.getParentFile().mkdirs();
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+                 FileLock lock = channel.lock()) {
+                action.run();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 追加一条记录，不 fsync
+     */
+    private void append(File file, byte[] content) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(body)) {
+            out.writeUTF(repositoryPath.getGitletDir().toPath()
+                    .relativize(file.toPath()).toString().replace(File.separatorChar, '/'));
+            out.writeBoolean(content == null);
+            if (content != null) {
+                out.writeInt(content.length);
+                out.write(content);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        byte[] payload = body.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(8 + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        try (OutputStream out = new FileOutputStream(repositoryPath.getJournalFile(), true)) {
+            out.write(record.array());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        dirty = true;
+    }
+
+    /**
+     * 读取 journal 中每个文件的最后一条记录，遇到不完整或校验失败的记录时停止
+     *
+     * @return k: 文件, v: 内容，删除为 null
+     */
+    private Map<File, byte[]> readRecords(File journal) {
+        Map<File, byte[]> res = new LinkedHashMap<>();
+        if (!journal.isFile()) {
+            return res;
+        }
+        ByteBuffer data = ByteBuffer.wrap(readContents(journal));
+        while (data.remaining() >= 8) {
+            int length = data.getInt();
+            int checksum = data.getInt();
+            if (length < 0 || length > data.remaining()) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data.array(), data.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            try (DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(data.array(), data.position(), length))) {
+                File file = join(repositoryPath.getGitletDir(), in.readUTF());
+                byte[] content = null;
+                if (!in.readBoolean()) {
+                    content = new byte[in.readInt()];
+                    in.readFully(content);
+                }
+                res.remove(file);
+                res.put(file, content);
+            } catch (IOException excp) {
+                break;
+            }
+            data.position(data.position() + length);
+        }
+        return res;
+    }
+
+    /**
+     * fsync 文件或目录，不支持打开目录的平台上忽略目录
+     */
+    static void fsync(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                file.isDirectory() ? StandardOpenOption.READ : StandardOpenOption.WRITE)) {
+            channel.force(true);
+            Stats.increment("journal.fsyncs");
+        } catch (IOException excp) {
+            if (!file.isDirectory()) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package gitlet;
+
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 本地路径的远程仓库，直接读写远程仓库的文件，对象由 {@link ObjectTransfer} 复制
+ */
+
+public class LocalRemote implements RemoteRepository {
+
+    private final RepositoryPath remotePath;
+
+    /**
+     * @param remotePath 远程仓库路径
+     */
+    public LocalRemote(RepositoryPath remotePath) {
+        this.remotePath = remotePath;
+        if (exists()) {
+            remotePath.recover();
+        }
+    }
+
+    @Override
+    public boolean exists() {
+        return remotePath.getGitletDir().exists();
+    }
+
+    /**
+     * push 对远程仓库的 stage 和分支加排他锁，保证检查分支和更新分支之间没有其他进程修改该分支；
+     * fetch 只读取远程仓库，加共享锁
+     */
+    @Override
+    public void lock(String branchName, boolean update) {
+        RepositoryLock lock = remotePath.getLock().shared(RepositoryLock.OBJECTS);
+        if (update) {
+            lock.exclusive(RepositoryLock.STAGE).exclusiveBranches(branchName);
+        } else {
+            lock.branches(Collections.singletonMap(branchName, false));
+        }
+    }
+
+    /**
+     * 按两个仓库 .gitlet 的绝对路径顺序加锁
+     */
+    @Override
+    public boolean locksBefore(RepositoryPath repositoryPath) {
+        return canonicalPath(remotePath).compareTo(canonicalPath(repositoryPath)) < 0;
+    }
+
+    private static String canonicalPath(RepositoryPath repositoryPath) {
+        try {
+            return repositoryPath.getGitletDir().getCanonicalPath();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    @Override
+    public String getBranch(String branchName) {
+        return remotePath.getBranch(branchName);
+    }
+
+    @Override
+    public void fetch(String commitKey, RepositoryPath repositoryPath) {
+        new ObjectTransfer(remotePath, repositoryPath).transfer(commitKey);
+    }
+
+    @Override
+    public void push(String branchName, String commitKey, RepositoryPath repositoryPath) {
+        new ObjectTransfer(repositoryPath, remotePath).transfer(commitKey);
+        remotePath.saveBranch(branchName, commitKey);
+        remotePath.flush();
+    }
+
+    @Override
+    public void close() {
+        remotePath.getLock().releaseAll();
+    }
+}
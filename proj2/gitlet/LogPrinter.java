@@ -0,0 +1,64 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Date;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote log 和 global-log 的输出。commit 逐个写入带缓冲的标准输出，
+ * 不经过 String.format，命令结束前调用 {@link #flush()}
+ */
+
+public class LogPrinter {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final PrintWriter out;
+
+    /**
+     * 只输出 commit key 的前 7 位和提交信息
+     */
+    private final boolean oneline;
+
+    public LogPrinter(boolean oneline) {
+        this.out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out), BUFFER_SIZE), false);
+        this.oneline = oneline;
+    }
+
+    /**
+     * 输出一个 commit
+     */
+    public void print(Commit commit) {
+        print(commit.getKey(), commit.getFirstParentKey(), commit.getSecondParentKey(),
+                commit.getTime(), commit.getMessage());
+    }
+
+    /**
+     * 输出提交信息索引中的一个 commit
+     */
+    public void print(MessageIndex.Entry entry) {
+        print(entry.getKey(), entry.getFirstParentKey(), entry.getSecondParentKey(),
+                entry.getTime(), entry.getMessage());
+    }
+
+    private void print(String key, String parentId1, String parentId2, long time,
+                       String message) {
+        if (oneline) {
+            out.write(key, 0, 7);
+            out.write(' ');
+            out.write(message);
+            out.write('\n');
+        } else {
+            out.write(Commit.format(key, parentId1, parentId2, new Date(time), message));
+            out.write('\n');
+        }
+    }
+
+    public void flush() {
+        out.flush();
+    }
+}
@@ -1,5 +1,15 @@
 package gitlet;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import static gitlet.RepositoryLock.*;
 import static gitlet.Utils.*;
 
 /**
@@ -14,11 +24,56 @@ public class Main {
      * <COMMAND> <OPERAND1> <OPERAND2> ...
      */
     public static void main(String[] args) {
+        // 当前目录有运行中的 daemon 时交给 daemon 执行
+        if (args.length > 0 && !args[0].equals("daemon") && !args[0].equals("serve")) {
+            int status = GitletDaemon.forward(Repository.REPO_PATH.getGitletDir(), args,
+                    System.out, System.err);
+            if (status >= 0) {
+                System.exit(status);
+            }
+        }
+        try {
+            execute(args);
+        } catch (CommandExit excp) {
+            System.exit(excp.getStatus());
+        }
+    }
+
+    /**
+     * 执行一条命令，命令出错时抛出 {@link CommandExit}，本次命令的修改不会保存
+     *
+     * @param args 命令参数
+     */
+    static void execute(String[] args) {
+        // 全局选项 --stats: 命令结束后输出计数器
+        if (args.length > 0 && args[0].equals("--stats")) {
+            Stats.enable();
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
         // 参数为空
         if (args.length == 0) {
             message("Please enter a command.");
             return;
         }
+        if (Repository.REPO_PATH.getGitletDir().exists()) {
+            Repository.REPO_PATH.recover();
+        }
+        try {
+            run(args);
+            // 命令正常结束，统一保存本次命令的修改
+            if (Repository.REPO_PATH.getGitletDir().exists()) {
+                Repository.REPO_PATH.flush();
+            }
+        } finally {
+            Repository.REPO_PATH.getLock().releaseAll();
+        }
+        Stats.print();
+    }
+
+    /**
+     * 执行命令
+     */
+    private static void run(String[] args) {
         String firstArg = args[0];
 
         switch (firstArg) {
@@ -76,18 +131,109 @@ public class Main {
             case "pull":
                 pull(args);
                 break;
+            case "repack":
+                repack(args);
+                break;
+            case "gc":
+                gc(args);
+                break;
+            case "serve":
+                serve(args);
+                break;
+            case "daemon":
+                daemon(args);
+                break;
+            case "diff":
+                diff(args);
+                break;
             default:
                 message("No command with that name exists.");
         }
     }
 
+    /**
+     * diff [--cached]
+     * diff [branch name] [branch name]
+     */
+    private static void diff(String[] args) {
+        checkRepositoryExists();
+        if (args.length > 3) {
+            message("Incorrect operands.");
+            exit(0);
+        }
+        lock().shared(OBJECTS).shared(HEAD).shared(STAGE).currentBranch(false);
+        if (args.length == 2 && args[1].equals("--cached")) {
+            Repository.diffStage();
+        } else if (args.length == 3) {
+            Repository.diffCommits(args[1], args[2]);
+        } else {
+            Repository.diffWorkingTree(args.length == 2 ? args[1] : null);
+        }
+    }
+
+    /**
+     * daemon
+     */
+    private static void daemon(String[] args) {
+        checkRepositoryExists();
+        checkOperands(args, 1);
+        Repository.daemon();
+    }
+
+    /**
+     * serve [port] [address]
+     * 默认只监听本机，address 为 0.0.0.0 时监听所有地址
+     */
+    private static void serve(String[] args) {
+        if (args.length > 3) {
+            message("Incorrect operands.");
+            exit(0);
+        }
+        int port = NetworkProtocol.DEFAULT_PORT;
+        InetAddress address = InetAddress.getLoopbackAddress();
+        try {
+            if (args.length >= 2) {
+                port = Integer.parseInt(args[1]);
+            }
+            if (args.length == 3) {
+                address = InetAddress.getByName(args[2]);
+            }
+        } catch (NumberFormatException | UnknownHostException excp) {
+            message("Incorrect operands.");
+            exit(0);
+        }
+        Repository.serve(port, address);
+    }
+
+    /**
+     * gc
+     */
+    private static void gc(String[] args) {
+        checkRepositoryExists();
+        checkOperands(args, 1);
+        lock().exclusive(OBJECTS).shared(HEAD).shared(STAGE);
+        Repository.gc();
+    }
+
+    /**
+     * repack
+     */
+    private static void repack(String[] args) {
+        checkRepositoryExists();
+        checkOperands(args, 1);
+        lock().exclusive(OBJECTS).shared(HEAD).shared(STAGE);
+        Repository.repack();
+    }
+
     /**
      * pull
      */
     private static void pull(String[] args) {
         checkRepositoryExists();
         checkOperands(args, 3);
-        Repository.pull(args[1], args[2]);
+        lock().shared(OBJECTS).shared(REMOTE);
+        Repository.pull(args[1], args[2], () -> lock().shared(HEAD).exclusive(STAGE)
+                .exclusiveBranches(currentBranch(), args[1] + "/" + args[2]));
     }
 
     /**
@@ -96,7 +242,9 @@ public class Main {
     private static void fetch(String[] args) {
         checkRepositoryExists();
         checkOperands(args, 3);
-        Repository.fetch(args[1], args[2]);
+        lock().shared(OBJECTS).shared(REMOTE);
+        Repository.fetch(args[1], args[2], () -> lock().exclusive(STAGE)
+                .exclusiveBranches(args[1] + "/" + args[2]));
     }
 
     /**
@@ -105,7 +253,8 @@ public class Main {
     private static void push(String[] args) {
         checkRepositoryExists();
         checkOperands(args, 3);
-        Repository.push(args[1], args[2]);
+        lock().shared(OBJECTS).shared(REMOTE);
+        Repository.push(args[1], args[2], () -> lock().shared(HEAD).currentBranch(false));
     }
 
     /**
@@ -114,6 +263,7 @@ public class Main {
     private static void removeRemote(String[] args) {
         checkRepositoryExists();
         checkOperands(args, 2);
+        lock().exclusive(REMOTE);
         Repository.removeRemote(args[1]);
     }
 
@@ -123,6 +273,7 @@ public class Main {
     private static void addRemote(String[] args) {
         checkRepositoryExists();
         checkOperands(args, 3);
+        lock().exclusive(REMOTE);
         Repository.addRemote(args[1], args[2]);
     }
 
@@ -132,6 +283,12 @@ public class Main {
     private static void merge(String[] args) {
         checkRepositoryExists();
         checkOperands(args, 2);
+        lock().shared(OBJECTS).shared(HEAD).exclusive(STAGE);
+        // 给定分支只读，与当前分支相同时加排他锁
+        Map<String, Boolean> branches = new HashMap<>();
+        branches.put(args[1], false);
+        branches.put(currentBranch(), true);
+        lock().branches(branches);
         Repository.merge(args[1]);
     }
 
@@ -141,6 +298,7 @@ public class Main {
     private static void reset(String[] args) {
         checkRepositoryExists();
         checkOperands(args, 2);
+        lock().shared(OBJECTS).shared(HEAD).exclusive(STAGE).currentBranch(true);
         Repository.reset(args[1]);
     }
 
@@ -150,6 +308,7 @@ public class Main {
     private static void rmBranch(String[] args) {
         checkRepositoryExists();
         checkOperands(args, 2);
+        lock().shared(HEAD).exclusiveBranches(args[1]);
         Repository.rmBranch(args[1]);
     }
 
@@ -159,6 +318,11 @@ public class Main {
     private static void branch(String[] args) {
         checkRepositoryExists();
         checkOperands(args, 2);
+        lock().shared(OBJECTS).shared(HEAD);
+        Map<String, Boolean> branches = new HashMap<>();
+        branches.put(currentBranch(), false);
+        branches.put(args[1], true);
+        lock().branches(branches);
         Repository.branch(args[1]);
     }
 
@@ -167,6 +331,12 @@ public class Main {
      */
     private static void checkout(String[] args) {
         checkRepositoryExists();
+        if (args.length == 2) {
+            // 切换分支修改 HEAD 和暂存区
+            lock().shared(OBJECTS).exclusive(HEAD).exclusive(STAGE);
+        } else {
+            lock().shared(OBJECTS).shared(HEAD).shared(STAGE).currentBranch(false);
+        }
         // checkout -- [file name]
         if (args.length == 3) {
             if (!args[1].equals("--")) {
@@ -195,6 +365,7 @@ public class Main {
     private static void status(String[] args) {
         checkRepositoryExists();
         checkOperands(args, 1);
+        lock().shared(OBJECTS).shared(HEAD).shared(STAGE).currentBranch(false);
         Repository.status();
     }
 
@@ -206,25 +377,63 @@ public class Main {
     private static void find(String[] args) {
         checkRepositoryExists();
         checkOperands(args, 2);
+        lock().shared(OBJECTS);
         Repository.find(args[1]);
     }
 
     /**
-     * global args
+     * global-log
+     * global-log --grep [text]
+     * global-log --regex [pattern]
      */
     private static void globalLog(String[] args) {
         checkRepositoryExists();
-        checkOperands(args, 1);
-        Repository.globalLog();
+        lock().shared(OBJECTS);
+        if (args.length == 1) {
+            Repository.globalLog();
+        } else if (args.length == 3 && (args[1].equals("--grep") || args[1].equals("--regex"))) {
+            Repository.globalLog(args[2], args[1].equals("--regex"));
+        } else {
+            message("Incorrect operands.");
+        }
     }
 
     /**
-     * log
+     * log [-n count] [--since yyyy-MM-dd[ HH:mm:ss]] [--oneline]
      */
     private static void log(String[] args) {
         checkRepositoryExists();
-        checkOperands(args, 1);
-        Repository.log();
+        int limit = Integer.MAX_VALUE;
+        Date since = null;
+        boolean oneline = false;
+        try {
+            for (int i = 1; i < args.length; i += 1) {
+                if (args[i].equals("--oneline")) {
+                    oneline = true;
+                } else if (args[i].equals("-n") && i + 1 < args.length) {
+                    limit = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--since") && i + 1 < args.length) {
+                    since = parseDate(args[++i]);
+                } else {
+                    throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (IllegalArgumentException | ParseException excp) {
+            message("Incorrect operands.");
+            exit(0);
+        }
+        lock().shared(OBJECTS).shared(HEAD).shared(STAGE).currentBranch(false);
+        Repository.log(limit, since, oneline);
+    }
+
+    /**
+     * 解析 yyyy-MM-dd 或 yyyy-MM-dd HH:mm:ss 格式的本地时间
+     */
+    private static Date parseDate(String date) throws ParseException {
+        String pattern = date.length() > 10 ? "yyyy-MM-dd HH:mm:ss" : "yyyy-MM-dd";
+        SimpleDateFormat format = new SimpleDateFormat(pattern);
+        format.setLenient(false);
+        return format.parse(date);
     }
 
     /**
@@ -233,6 +442,7 @@ public class Main {
     private static void rm(String[] args) {
         checkRepositoryExists();
         checkOperands(args, 2);
+        lock().shared(OBJECTS).shared(HEAD).exclusive(STAGE).currentBranch(false);
         Repository.rm(args[1]);
     }
 
@@ -242,6 +452,7 @@ public class Main {
     private static void commit(String[] args) {
         checkRepositoryExists();
         checkOperands(args, 2);
+        lock().shared(OBJECTS).shared(HEAD).exclusive(STAGE).currentBranch(true);
         String message = args[1];
         if (isBlank(message)) {
             errorAndExit("Please enter a commit message.");
@@ -259,8 +470,12 @@ public class Main {
      */
     private static void add(String[] args) {
         checkRepositoryExists();
-        checkOperands(args, 2);
-        Repository.add(args[1]);
+        if (args.length < 2) {
+            message("Incorrect operands.");
+            exit(0);
+        }
+        lock().shared(OBJECTS).shared(HEAD).exclusive(STAGE).currentBranch(false);
+        Repository.add(Arrays.asList(args).subList(1, args.length));
     }
 
     /**
@@ -271,13 +486,27 @@ public class Main {
         Repository.init();
     }
 
+    /**
+     * 当前仓库的锁，命令结束时在 {@link #main(String[])} 中释放
+     */
+    private static RepositoryLock lock() {
+        return Repository.REPO_PATH.getLock();
+    }
+
+    /**
+     * 当前分支名，调用前需要持有 HEAD 的锁
+     */
+    private static String currentBranch() {
+        return Repository.REPO_PATH.getCurrBranch();
+    }
+
     /**
      * 命令格式错误
      */
     private static void checkOperands(String[] args, int expectedLength) {
         if (args.length != expectedLength) {
             message("Incorrect operands.");
-            System.exit(0);
+            exit(0);
         }
     }
 
@@ -288,7 +517,7 @@ public class Main {
         // 不在初始化 gitlet 工作目录
         if (!Repository.REPO_PATH.getGitletDir().exists()) {
             message("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            exit(0);
         }
     }
 }
@@ -0,0 +1,178 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 按行三路合并文件。分别计算公共祖先到两个分支的修改，
+ * 按公共祖先中的位置依次处理: 只有一方修改的区域取该方的内容，两方修改重叠或相邻的区域
+ * 内容相同时取其一，不同时写入冲突标记。
+ * 结果按行直接从三个文件的原始字节写出，不拼接字符串。
+ * 冲突一方的最后一行缺少换行符时补上换行符，使冲突标记独占一行
+ * <pre>
+ * &lt;&lt;&lt;&lt;&lt;&lt;&lt; HEAD
+ * 当前分支的内容
+ * =======
+ * 目标分支的内容
+ * &gt;&gt;&gt;&gt;&gt;&gt;&gt;
+ * </pre>
+ */
+
+public class MergeText {
+
+    private static final byte[] CONFLICT_BEGIN = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CONFLICT_SEPARATOR = "=======\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CONFLICT_END = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    private final byte[] content;
+
+    private final boolean conflict;
+
+    private MergeText(byte[] content, boolean conflict) {
+        this.content = content;
+        this.conflict = conflict;
+    }
+
+    /**
+     * 合并后的内容
+     */
+    public byte[] getContent() {
+        return content;
+    }
+
+    /**
+     * 是否有冲突
+     */
+    public boolean hasConflict() {
+        return conflict;
+    }
+
+    /**
+     * 整个文件作为冲突，用于一方删除另一方修改的文件
+     *
+     * @param ours   当前分支的内容，删除为 null
+     * @param theirs 目标分支的内容，删除为 null
+     * @return 合并结果
+     */
+    public static MergeText conflict(byte[] ours, byte[] theirs) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(CONFLICT_BEGIN);
+        if (ours != null) {
+            writeSide(out, ours);
+        }
+        out.writeBytes(CONFLICT_SEPARATOR);
+        if (theirs != null) {
+            writeSide(out, theirs);
+        }
+        out.writeBytes(CONFLICT_END);
+        return new MergeText(out.toByteArray(), true);
+    }
+
+    /**
+     * 三路合并
+     *
+     * @param base   公共祖先的内容，不存在为空
+     * @param ours   当前分支的内容
+     * @param theirs 目标分支的内容
+     * @return 合并结果
+     */
+    public static MergeText merge(byte[] base, byte[] ours, byte[] theirs) {
+        RawText baseText = new RawText(base);
+        RawText oursText = new RawText(ours);
+        RawText theirsText = new RawText(theirs);
+        List<Diff.Edit> oursEdits = Diff.diff(baseText, oursText);
+        List<Diff.Edit> theirsEdits = Diff.diff(baseText, theirsText);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                Math.max(ours.length, theirs.length) + 64);
+        boolean conflict = false;
+        // 已输出的公共祖先行数，两个分支的行号相对公共祖先的偏移
+        int basePos = 0;
+        int oursShift = 0;
+        int theirsShift = 0;
+        int i = 0;
+        int j = 0;
+        while (i < oursEdits.size() || j < theirsEdits.size()) {
+            // 从起点较小的修改开始，合并与之重叠或相邻的修改
+            int begin = Math.min(
+                    i < oursEdits.size() ? oursEdits.get(i).getBeginA() : Integer.MAX_VALUE,
+                    j < theirsEdits.size() ? theirsEdits.get(j).getBeginA() : Integer.MAX_VALUE);
+            int end = begin;
+            int oursEnd = i;
+            int theirsEnd = j;
+            boolean grown = true;
+            while (grown) {
+                grown = false;
+                if (oursEnd < oursEdits.size() && oursEdits.get(oursEnd).getBeginA() <= end) {
+                    end = Math.max(end, oursEdits.get(oursEnd).getEndA());
+                    oursEnd += 1;
+                    grown = true;
+                }
+                if (theirsEnd < theirsEdits.size()
+                        && theirsEdits.get(theirsEnd).getBeginA() <= end) {
+                    end = Math.max(end, theirsEdits.get(theirsEnd).getEndA());
+                    theirsEnd += 1;
+                    grown = true;
+                }
+            }
+            baseText.writeLines(out, basePos, begin);
+            int oursBegin = begin + oursShift;
+            int theirsBegin = begin + theirsShift;
+            for (int k = i; k < oursEnd; k += 1) {
+                oursShift += editShift(oursEdits.get(k));
+            }
+            for (int k = j; k < theirsEnd; k += 1) {
+                theirsShift += editShift(theirsEdits.get(k));
+            }
+            int oursStop = end + oursShift;
+            int theirsStop = end + theirsShift;
+            if (oursEnd == i) {
+                theirsText.writeLines(out, theirsBegin, theirsStop);
+            } else if (theirsEnd == j || oursText.rangeEquals(oursBegin, oursStop,
+                    theirsText, theirsBegin, theirsStop)) {
+                oursText.writeLines(out, oursBegin, oursStop);
+            } else {
+                conflict = true;
+                out.writeBytes(CONFLICT_BEGIN);
+                writeSide(out, oursText, oursBegin, oursStop);
+                out.writeBytes(CONFLICT_SEPARATOR);
+                writeSide(out, theirsText, theirsBegin, theirsStop);
+                out.writeBytes(CONFLICT_END);
+            }
+            basePos = end;
+            i = oursEnd;
+            j = theirsEnd;
+        }
+        baseText.writeLines(out, basePos, baseText.size());
+        return new MergeText(out.toByteArray(), conflict);
+    }
+
+    /**
+     * 写入冲突一方的整个文件
+     */
+    private static void writeSide(ByteArrayOutputStream out, byte[] content) {
+        out.writeBytes(content);
+        if (content.length > 0 && content[content.length - 1] != '\n') {
+            out.write('\n');
+        }
+    }
+
+    /**
+     * 写入冲突一方 [from, to) 行，只有文件的最后一行可能缺少换行符
+     */
+    private static void writeSide(ByteArrayOutputStream out, RawText text, int from, int to) {
+        text.writeLines(out, from, to);
+        if (to > from && to == text.size() && text.isMissingNewlineAtEnd()) {
+            out.write('\n');
+        }
+    }
+
+    /**
+     * 修改后的行数变化
+     */
+    private static int editShift(Diff.Edit edit) {
+        return (edit.getEndB() - edit.getBeginB()) - (edit.getEndA() - edit.getBeginA());
+    }
+}
@@ -0,0 +1,421 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+import static gitlet.Utils.*;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote commit 提交信息的索引，find 和 global-log 不需要读取 commit 对象。
+ * 由两部分组成:
+ * <pre>
+ * message-index:      "GMIX" | version | count(4) | bucketCount(4) | bucket[bucketCount] | record*
+ *                     record: next(4) | hash(4) | entry
+ * message-index.tail: (length(4) | crc32(4) | entry)*             (新提交的 commit，追加写入)
+ * entry:              time(8) | parentCount(1) | id[20] | parentId[20]* | message
+ * </pre>
+ * 主索引中的记录按提交时间从新到旧排列，global-log 顺序读取即可；
+ * 提交信息的哈希值相同的记录通过 next 串成链表，bucket 保存链表头的偏移，find 只查找一条链。
+ * tail 超过 {@link #TAIL_LIMIT} 个时合并到主索引。写入中断时 tail 末尾可能残留不完整的记录，
+ * 读取时在第一条不完整或校验失败的记录处停止，下一次追加前截断
+ */
+
+public class MessageIndex {
+
+    private static final int MAGIC = 0x474d4958;
+
+    private static final int VERSION = 2;
+
+    /**
+     * 文件头长度: magic + version + count + bucketCount
+     */
+    private static final int HEADER_LENGTH = 16;
+
+    /**
+     * tail 记录头长度: length + crc32
+     */
+    private static final int RECORD_HEADER_LENGTH = 8;
+
+    /**
+     * 链表结束
+     */
+    private static final int NONE = -1;
+
+    /**
+     * tail 中 commit 个数的上限
+     */
+    private static final int TAIL_LIMIT = 1024;
+
+    /**
+     * 按提交时间从新到旧排列，时间相同时按 commit key 排列
+     */
+    private static final Comparator<Entry> NEWEST_FIRST = Comparator
+            .comparingLong(Entry::getTime).reversed().thenComparing(Entry::getKey);
+
+    /**
+     * 索引中的一个 commit
+     */
+    public static class Entry {
+
+        private final String key;
+
+        private final String parentId1;
+
+        private final String parentId2;
+
+        private final long time;
+
+        private final String message;
+
+        Entry(String key, String parentId1, String parentId2, long time, String message) {
+            this.key = key;
+            this.parentId1 = parentId1;
+            this.parentId2 = parentId2;
+            this.time = time;
+            this.message = message;
+        }
+
+        Entry(Commit commit) {
+            this(commit.getKey(), commit.getFirstParentKey(), commit.getSecondParentKey(),
+                    commit.getTime(), commit.getMessage());
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getFirstParentKey() {
+            return parentId1;
+        }
+
+        public String getSecondParentKey() {
+            return parentId2;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    private final RepositoryPath repositoryPath;
+
+    /**
+     * 主索引
+     */
+    private ByteBuffer buffer;
+
+    private int bucketCount;
+
+    /**
+     * 尚未合并到主索引的 commit，按时间从新到旧排列
+     */
+    private TreeSet<Entry> tail;
+
+    /**
+     * tail 中的 commit，k: 提交信息, v: commit key
+     */
+    private Map<String, List<String>> tailMessages;
+
+    /**
+     * tail 文件中完整记录的总长度
+     */
+    private long tailLength;
+
+    public MessageIndex(RepositoryPath repositoryPath) {
+        this.repositoryPath = repositoryPath;
+        if (!load()) {
+            rebuild();
+        }
+    }
+
+    /**
+     * 加载主索引和 tail
+     *
+     * @return 主索引是否存在且有效
+     */
+    private boolean load() {
+        File file = repositoryPath.getMessageIndexFile();
+        if (!file.isFile()) {
+            return false;
+        }
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (mapped.capacity() < HEADER_LENGTH
+                || mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+            return false;
+        }
+        buffer = mapped;
+        bucketCount = buffer.getInt(12);
+        tail = new TreeSet<>(NEWEST_FIRST);
+        tailMessages = new HashMap<>();
+        tailLength = 0;
+        File tailFile = repositoryPath.getMessageIndexTailFile();
+        if (tailFile.isFile()) {
+            ByteBuffer data = ByteBuffer.wrap(readContents(tailFile));
+            // 其他进程可能正在追加，这里只忽略不完整的记录，由下一次 add 截断
+            while (data.remaining() >= RECORD_HEADER_LENGTH) {
+                int start = data.position();
+                int length = data.getInt(start);
+                if (length <= 0 || length > data.remaining() - RECORD_HEADER_LENGTH
+                        || data.getInt(start + 4) != checksum(data.array(),
+                                start + RECORD_HEADER_LENGTH, length)) {
+                    break;
+                }
+                addToTail(readEntry(data, start + RECORD_HEADER_LENGTH));
+                data.position(start + RECORD_HEADER_LENGTH + length);
+            }
+            tailLength = data.position();
+        }
+        return true;
+    }
+
+    /**
+     * 读取全部 commit 重建索引
+     */
+    public void rebuild() {
+        List<Entry> entries = new ArrayList<>();
+        for (String key : repositoryPath.getAllCommitKeys()) {
+            entries.add(new Entry(repositoryPath.getCommit(key)));
+        }
+        write(entries);
+    }
+
+    /**
+     * 将 tail 合并到主索引
+     */
+    public void merge() {
+        if (!tail.isEmpty()) {
+            List<Entry> entries = new ArrayList<>();
+            forEach(entries::add);
+            write(entries);
+        }
+    }
+
+    /**
+     * 写入新的主索引并清空 tail
+     */
+    private void write(List<Entry> entries) {
+        entries.sort(NEWEST_FIRST);
+        int buckets = Integer.highestOneBit(Math.max(entries.size(), 8) * 2 - 1);
+        int[] heads = new int[buckets];
+        Arrays.fill(heads, NONE);
+        int[] next = new int[entries.size()];
+        int[] offsets = new int[entries.size()];
+        int offset = HEADER_LENGTH + buckets * 4;
+        for (int i = 0; i < entries.size(); i += 1) {
+            offsets[i] = offset;
+            offset += 8 + entryLength(entries.get(i));
+        }
+        // 从后向前插入链表头，链表中的记录同样按时间从新到旧排列
+        for (int i = entries.size() - 1; i >= 0; i -= 1) {
+            int bucket = bucketOf(entries.get(i).getMessage(), buckets);
+            next[i] = heads[bucket];
+            heads[bucket] = offsets[i];
+        }
+        ByteBuffer out = ByteBuffer.allocate(offset);
+        out.putInt(MAGIC).putInt(VERSION).putInt(entries.size()).putInt(buckets);
+        for (int head : heads) {
+            out.putInt(head);
+        }
+        for (int i = 0; i < entries.size(); i += 1) {
+            out.putInt(next[i]);
+            out.putInt(entries.get(i).getMessage().hashCode());
+            writeEntry(out, entries.get(i));
+        }
+        File file = repositoryPath.getMessageIndexFile();
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            writeContentsAtomic(file, out.array());
+            Files.deleteIfExists(repositoryPath.getMessageIndexTailFile().toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        load();
+    }
+
+    /**
+     * 添加新的 commit，已存在时忽略
+     *
+     * @param commit commit
+     */
+    public void add(Commit commit) {
+        File tailFile = repositoryPath.getMessageIndexTailFile();
+        // 加载后其他进程可能追加或合并了 tail，重新加载
+        if (tailFile.length() != tailLength && !load()) {
+            rebuild();
+        }
+        if (find(commit.getMessage()).contains(commit.getKey())) {
+            return;
+        }
+        Entry entry = new Entry(commit);
+        int length = entryLength(entry);
+        ByteBuffer out = ByteBuffer.allocate(RECORD_HEADER_LENGTH + length);
+        out.position(RECORD_HEADER_LENGTH);
+        writeEntry(out, entry);
+        out.putInt(0, length).putInt(4, checksum(out.array(), RECORD_HEADER_LENGTH, length));
+        out.flip();
+        try (FileChannel channel = FileChannel.open(tailFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // 截断写入中断时残留的不完整记录，新记录紧跟最后一条完整记录
+            channel.truncate(tailLength);
+            channel.position(tailLength);
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        tailLength += RECORD_HEADER_LENGTH + length;
+        addToTail(entry);
+        if (tail.size() >= TAIL_LIMIT) {
+            merge();
+        }
+    }
+
+    private void addToTail(Entry entry) {
+        tail.add(entry);
+        tailMessages.computeIfAbsent(entry.getMessage(), k -> new ArrayList<>())
+                .add(entry.getKey());
+    }
+
+    /**
+     * 找到提交信息完全相同的 commit，只查找一条链
+     *
+     * @param message 提交信息
+     * @return commit key，按时间从新到旧排列
+     */
+    public List<String> find(String message) {
+        List<String> res = new ArrayList<>(tailMessages.getOrDefault(message, List.of()));
+        int hash = message.hashCode();
+        int offset = buffer.getInt(HEADER_LENGTH + bucketOf(message, bucketCount) * 4);
+        while (offset != NONE) {
+            if (buffer.getInt(offset + 4) == hash) {
+                Entry entry = readEntry(buffer, offset + 8);
+                if (entry.getMessage().equals(message)) {
+                    res.add(entry.getKey());
+                }
+            }
+            offset = buffer.getInt(offset);
+        }
+        return res;
+    }
+
+    /**
+     * 按提交时间从新到旧遍历全部 commit，主索引顺序读取，与 tail 归并
+     *
+     * @param action 对每个 commit 执行的操作
+     */
+    public void forEach(Consumer<Entry> action) {
+        search(message -> true, action);
+    }
+
+    /**
+     * 按提交时间从新到旧遍历提交信息满足条件的 commit
+     *
+     * @param filter 提交信息的过滤条件
+     * @param action 对每个 commit 执行的操作
+     */
+    public void search(Predicate<String> filter, Consumer<Entry> action) {
+        Iterator<Entry> tailEntries = tail.iterator();
+        Entry next = tailEntries.hasNext() ? tailEntries.next() : null;
+        int count = buffer.getInt(8);
+        int offset = HEADER_LENGTH + bucketCount * 4;
+        for (int i = 0; i < count; i += 1) {
+            Entry entry = readEntry(buffer, offset + 8);
+            offset += 8 + entryLength(entry);
+            while (next != null && NEWEST_FIRST.compare(next, entry) < 0) {
+                accept(next, filter, action);
+                next = tailEntries.hasNext() ? tailEntries.next() : null;
+            }
+            accept(entry, filter, action);
+        }
+        while (next != null) {
+            accept(next, filter, action);
+            next = tailEntries.hasNext() ? tailEntries.next() : null;
+        }
+    }
+
+    private static void accept(Entry entry, Predicate<String> filter, Consumer<Entry> action) {
+        if (filter.test(entry.getMessage())) {
+            action.accept(entry);
+        }
+    }
+
+    private static int bucketOf(String message, int buckets) {
+        int h = message.hashCode();
+        return (h ^ (h >>> 16)) & (buckets - 1);
+    }
+
+    /**
+     * entry 编码后的长度
+     */
+    private static int entryLength(Entry entry) {
+        int parentCount = entry.parentId1 == null ? 0 : entry.parentId2 == null ? 1 : 2;
+        return 8 + 1 + ObjectIdTable.ID_LENGTH * (1 + parentCount)
+                + 4 + entry.getMessage().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static void writeEntry(ByteBuffer out, Entry entry) {
+        int parentCount = entry.parentId1 == null ? 0 : entry.parentId2 == null ? 1 : 2;
+        out.putLong(entry.getTime());
+        out.put((byte) parentCount);
+        out.put(hexToBytes(entry.getKey()));
+        if (parentCount > 0) {
+            out.put(hexToBytes(entry.parentId1));
+        }
+        if (parentCount > 1) {
+            out.put(hexToBytes(entry.parentId2));
+        }
+        byte[] message = entry.getMessage().getBytes(StandardCharsets.UTF_8);
+        out.putInt(message.length);
+        out.put(message);
+    }
+
+    /**
+     * 读取 offset 处的 entry，不改变 buffer 的位置
+     */
+    private static Entry readEntry(ByteBuffer buffer, int offset) {
+        ByteBuffer in = buffer.duplicate();
+        in.position(offset);
+        long time = in.getLong();
+        int parentCount = in.get();
+        String key = readId(in);
+        String parentId1 = parentCount > 0 ? readId(in) : null;
+        String parentId2 = parentCount > 1 ? readId(in) : null;
+        byte[] message = new byte[in.getInt()];
+        in.get(message);
+        return new Entry(key, parentId1, parentId2, time,
+                new String(message, StandardCharsets.UTF_8));
+    }
+
+    private static int checksum(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static String readId(ByteBuffer in) {
+        byte[] id = new byte[ObjectIdTable.ID_LENGTH];
+        in.get(id);
+        return bytesToHex(id, 0, id.length);
+    }
+}
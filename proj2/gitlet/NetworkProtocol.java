@@ -0,0 +1,267 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.BinaryCodec.*;
+import static gitlet.Utils.*;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote gitlet:// 远程仓库的传输协议，一次连接完成一次 push 或 fetch。
+ * <pre>
+ * 客户端: "GNET" | version(4) | path
+ * 服务端: status(1) [message] | count(4) | {branchName | id[20]}*    (分支公告)
+ * fetch:  客户端: FETCH(1) | want id[20] | count(4) | {have id[20]}*
+ *         服务端: status(1) [message] | 对象流
+ * push:   客户端: PUSH(1) | branchName | id[20] | 对象流
+ *         服务端: status(1) [message]
+ * 对象流: {type(1) | id[20] | length(8) | data}* | 0
+ * </pre>
+ * status 为 {@link #OK} 或 {@link #ERROR}，ERROR 后跟错误信息。
+ * 对象流中 blob 在前，其次是目录对象(子目录在前)，最后是 commit(父 commit 在前)，
+ * data 为对象存储的内容，接收方按本地对象库的编码重新计算哈希值，全部一致时才将对象流写入一个新的 pack，
+ * 移动分支前再确认新 commit 的历史、目录和 blob 都已存在。
+ * 长度字段来自网络，字符串不超过 {@link #MAX_STRING_LENGTH}，对象不超过 {@link #MAX_OBJECT_SIZE}，
+ * 超出时断开连接；对象按实际收到的字节读取，不按声明的长度预先分配
+ */
+
+public class NetworkProtocol {
+
+    /**
+     * "GNET"
+     */
+    static final int MAGIC = 0x474e4554;
+
+    static final int VERSION = 1;
+
+    static final String SCHEME = "gitlet";
+
+    static final int DEFAULT_PORT = 9418;
+
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+
+    static final byte FETCH = 1;
+    static final byte PUSH = 2;
+
+    /**
+     * 路径、分支名和错误信息的最大字节数
+     */
+    static final int MAX_STRING_LENGTH = 1 << 12;
+
+    /**
+     * 单个对象存储内容的最大字节数
+     */
+    static final int MAX_OBJECT_SIZE = 1 << 28;
+
+    /**
+     * 对象流结束标记
+     */
+    private static final byte END = 0;
+
+    /**
+     * 是否为 gitlet:// 远程仓库地址
+     */
+    static boolean isUrl(String location) {
+        return location.startsWith(SCHEME + "://");
+    }
+
+    /**
+     * 解析远程仓库地址 gitlet://host[:port]/path
+     *
+     * @param url 远程仓库地址
+     * @return 地址，格式错误返回 null
+     */
+    static URI parseUrl(String url) {
+        try {
+            URI uri = new URI(url);
+            if (!SCHEME.equals(uri.getScheme()) || uri.getHost() == null) {
+                return null;
+            }
+            return uri;
+        } catch (URISyntaxException excp) {
+            return null;
+        }
+    }
+
+    /**
+     * 远程仓库在服务端根目录下的相对路径，去掉开头的 / 和 /.gitlet 后缀
+     */
+    static String repositoryPathOf(URI uri) {
+        String path = uri.getPath() == null ? "" : uri.getPath();
+        if (path.endsWith("/.gitlet")) {
+            path = path.substring(0, path.length() - 8);
+        }
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        return path;
+    }
+
+    static void writeStatus(DataOutputStream out, String errorMessage) throws IOException {
+        if (errorMessage == null) {
+            out.writeByte(OK);
+        } else {
+            out.writeByte(ERROR);
+            writeString(out, errorMessage);
+        }
+    }
+
+    /**
+     * 读取状态
+     *
+     * @return 错误信息，成功返回 null
+     */
+    static String readStatus(DataInputStream in) throws IOException {
+        return in.readByte() == OK ? null : readString(in, MAX_STRING_LENGTH);
+    }
+
+    /**
+     * 发送 walk 得到的对象
+     *
+     * @param out            输出流
+     * @param repositoryPath 发送方仓库
+     * @param walk           要发送的对象
+     */
+    static void writeObjects(DataOutputStream out, RepositoryPath repositoryPath, ObjectWalk walk)
+            throws IOException {
+        for (String key : walk.getBlobs()) {
+            writeObject(out, repositoryPath, PackFile.OBJ_BLOB, key);
+            Stats.increment("transfer.blobs");
+        }
+        for (String key : walk.getTrees()) {
+            writeObject(out, repositoryPath, PackFile.OBJ_TREE, key);
+            Stats.increment("transfer.trees");
+        }
+        for (String key : walk.getCommits()) {
+            writeObject(out, repositoryPath, PackFile.OBJ_COMMIT, key);
+            Stats.increment("transfer.commits");
+        }
+        out.writeByte(END);
+        out.flush();
+    }
+
+    private static void writeObject(DataOutputStream out, RepositoryPath repositoryPath,
+                                    byte type, String key) throws IOException {
+        byte[] data = repositoryPath.readStoredObject(type, key);
+        if (data == null) {
+            throw new IOException("Missing object " + key);
+        }
+        if (data.length > MAX_OBJECT_SIZE) {
+            throw new IOException("Object too large to transfer: " + key);
+        }
+        out.writeByte(type);
+        writeId(out, key);
+        out.writeLong(data.length);
+        out.write(data);
+        Stats.add("transfer.bytes", data.length);
+    }
+
+    /**
+     * 读取并丢弃对象流
+     */
+    static void skipObjects(DataInputStream in) throws IOException {
+        for (byte type = in.readByte(); type != END; type = in.readByte()) {
+            String key = readId(in);
+            long length = in.readLong();
+            if (length < 0 || length > MAX_OBJECT_SIZE) {
+                throw new IOException("Object too large: " + key);
+            }
+            in.skipNBytes(length);
+        }
+    }
+
+    /**
+     * 接收对象流，写入一个新的 pack。接收方已有的对象不再写入
+     *
+     * @param in             输入流
+     * @param repositoryPath 接收方仓库
+     * @return 接收到的 commit
+     */
+    static List<String> readObjects(DataInputStream in, RepositoryPath repositoryPath)
+            throws IOException {
+        List<String> commits = new ArrayList<>();
+        PackFile.Writer writer = new PackFile.Writer(repositoryPath.getPackDir());
+        try {
+            for (byte type = in.readByte(); type != END; type = in.readByte()) {
+                if (type != PackFile.OBJ_COMMIT && type != PackFile.OBJ_TREE
+                        && type != PackFile.OBJ_BLOB) {
+                    throw new IOException("Unknown object type: " + type);
+                }
+                String key = readId(in);
+                long length = in.readLong();
+                if (length < 0 || length > MAX_OBJECT_SIZE) {
+                    throw new IOException("Object too large: " + key);
+                }
+                // 缓冲区随收到的数据增长，声明的长度不可信
+                byte[] data = in.readNBytes((int) length);
+                if (data.length != length) {
+                    throw new EOFException();
+                }
+                Stats.add("transfer.bytes", length);
+                verifyObject(type, key, data);
+                if (type == PackFile.OBJ_COMMIT) {
+                    commits.add(key);
+                    Stats.increment("transfer.commits");
+                } else {
+                    Stats.increment(type == PackFile.OBJ_TREE ? "transfer.trees" : "transfer.blobs");
+                }
+                if (!repositoryPath.hasObject(type, key)) {
+                    writer.add(key, type, data);
+                }
+            }
+        } catch (IOException | RuntimeException excp) {
+            writer.abort();
+            throw excp;
+        }
+        PackFile pack = writer.finish();
+        if (pack != null) {
+            repositoryPath.addPack(pack);
+        }
+        return commits;
+    }
+
+    /**
+     * 按本地对象库的编码计算对象的哈希值，与声明的 key 不一致时拒绝。
+     * blob 的哈希值只包含文件内容；旧格式的 commit 在记录 key 之前计算哈希值，无法重新计算，只比较记录的 key
+     *
+     * @param type 对象类型
+     * @param key  声明的哈希值
+     * @param data 对象存储的内容
+     */
+    private static void verifyObject(byte type, String key, byte[] data) throws IOException {
+        String actual;
+        try {
+            if (type == PackFile.OBJ_BLOB && Blob.isRaw(data)) {
+                long length = ByteBuffer.wrap(data).getLong(4);
+                if (length != data.length - Blob.RAW_HEADER_LENGTH) {
+                    throw new IOException("Corrupt object " + key);
+                }
+                MessageDigest md = sha1Digest();
+                md.update(data, Blob.RAW_HEADER_LENGTH, (int) length);
+                actual = hexDigest(md);
+            } else if (type == PackFile.OBJ_BLOB) {
+                actual = sha1(Blob.fromStored(key, data).getContent());
+            } else if (type == PackFile.OBJ_COMMIT && Commit.isSerialized(data)) {
+                actual = Commit.fromStored(key, data).getKey();
+            } else {
+                actual = sha1(data);
+            }
+        } catch (IllegalArgumentException excp) {
+            throw new IOException("Corrupt object " + key);
+        }
+        if (!actual.equals(key)) {
+            throw new IOException("Corrupt object " + key);
+        }
+    }
+}
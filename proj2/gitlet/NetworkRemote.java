@@ -0,0 +1,165 @@
+package gitlet;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.*;
+
+import static gitlet.BinaryCodec.*;
+import static gitlet.Utils.errorAndExit;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote gitlet://host:port/path 远程仓库，通过 {@link NetworkProtocol} 与 gitlet serve 通信。
+ * 第一次访问远程仓库时建立连接并读取分支公告，一个对象只完成一次 push 或 fetch
+ */
+
+public class NetworkRemote implements RemoteRepository {
+
+    private static final int CONNECT_TIMEOUT = 10000;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final String url;
+
+    private Socket socket;
+
+    private DataInputStream in;
+
+    private DataOutputStream out;
+
+    /**
+     * 连接失败或服务端返回的错误信息
+     */
+    private String connectError;
+
+    /**
+     * 远程仓库的分支公告，k: 分支名, v: Head Commit Key
+     */
+    private Map<String, String> branches;
+
+    /**
+     * @param url 远程仓库地址
+     */
+    public NetworkRemote(String url) {
+        this.url = url;
+    }
+
+    /**
+     * 建立连接并读取分支公告
+     */
+    private void connect() {
+        if (branches != null || connectError != null) {
+            return;
+        }
+        URI uri = NetworkProtocol.parseUrl(url);
+        if (uri == null) {
+            connectError = "Invalid remote URL.";
+            return;
+        }
+        try {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            int port = uri.getPort() < 0 ? NetworkProtocol.DEFAULT_PORT : uri.getPort();
+            socket.connect(new InetSocketAddress(uri.getHost(), port), CONNECT_TIMEOUT);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+            out.writeInt(NetworkProtocol.MAGIC);
+            out.writeInt(NetworkProtocol.VERSION);
+            writeString(out, NetworkProtocol.repositoryPathOf(uri));
+            out.flush();
+            connectError = NetworkProtocol.readStatus(in);
+            if (connectError != null) {
+                return;
+            }
+            Map<String, String> advertised = new TreeMap<>();
+            int count = in.readInt();
+            for (int i = 0; i < count; i += 1) {
+                String branchName = readString(in, NetworkProtocol.MAX_STRING_LENGTH);
+                advertised.put(branchName, readId(in));
+            }
+            branches = advertised;
+        } catch (IOException excp) {
+            connectError = excp.getMessage();
+        }
+    }
+
+    @Override
+    public boolean exists() {
+        connect();
+        return connectError == null;
+    }
+
+    @Override
+    public String getBranch(String branchName) {
+        connect();
+        if (connectError != null) {
+            errorAndExit(connectError);
+        }
+        return branches.get(branchName);
+    }
+
+    @Override
+    public void fetch(String commitKey, RepositoryPath repositoryPath) {
+        connect();
+        long start = System.nanoTime();
+        try {
+            Set<String> haves = repositoryPath.getRefCommits();
+            haves.addAll(branches.values());
+            haves.removeIf(key -> !repositoryPath.hasCommit(key));
+            out.writeByte(NetworkProtocol.FETCH);
+            writeId(out, commitKey);
+            out.writeInt(haves.size());
+            for (String key : haves) {
+                writeId(out, key);
+            }
+            out.flush();
+            String error = NetworkProtocol.readStatus(in);
+            if (error != null) {
+                errorAndExit(error);
+            }
+            NetworkProtocol.readObjects(in, repositoryPath);
+            if (!repositoryPath.isConnected(commitKey)) {
+                errorAndExit("Missing objects for " + commitKey + ".");
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Stats.rate("transfer.mb_per_s", Stats.get("transfer.bytes") / 1048576.0,
+                System.nanoTime() - start);
+    }
+
+    @Override
+    public void push(String branchName, String commitKey, RepositoryPath repositoryPath) {
+        connect();
+        long start = System.nanoTime();
+        try {
+            ObjectWalk walk = new ObjectWalk(repositoryPath, commitKey, branches.values());
+            out.writeByte(NetworkProtocol.PUSH);
+            writeString(out, branchName);
+            writeId(out, commitKey);
+            NetworkProtocol.writeObjects(out, repositoryPath, walk);
+            String error = NetworkProtocol.readStatus(in);
+            if (error != null) {
+                errorAndExit(error);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Stats.rate("transfer.mb_per_s", Stats.get("transfer.bytes") / 1048576.0,
+                System.nanoTime() - start);
+    }
+
+    @Override
+    public void close() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException excp) {
+                // 连接已断开
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 单次命令内的 LRU 对象缓存，按估算的字节数限制容量。
+ * 命中、未命中和淘汰次数记录在 {@link Stats} 中，计数器名为 cache.&lt;name&gt;.*
+ */
+
+public class ObjectCache<V> {
+
+    private final String name;
+
+    /**
+     * 缓存总容量(字节)
+     */
+    private final long capacity;
+
+    /**
+     * 单个对象的容量上限(字节)，更大的对象不缓存
+     */
+    private final long maxEntryWeight;
+
+    /**
+     * 按访问顺序排列，k: 对象哈希值, v: {对象, 大小}
+     */
+    private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long weight;
+
+    /**
+     * @param name           缓存名，用于统计
+     * @param capacity       缓存总容量(字节)
+     * @param maxEntryWeight 单个对象的容量上限(字节)
+     */
+    public ObjectCache(String name, long capacity, long maxEntryWeight) {
+        this.name = name;
+        this.capacity = capacity;
+        this.maxEntryWeight = maxEntryWeight;
+    }
+
+    /**
+     * 获取缓存的对象
+     *
+     * @param key 对象哈希值
+     * @return 对象，未缓存返回 null
+     */
+    public synchronized V get(String key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            Stats.increment("cache." + name + ".misses");
+            return null;
+        }
+        Stats.increment("cache." + name + ".hits");
+        return entry.value;
+    }
+
+    /**
+     * 缓存对象，超出容量时淘汰最久未使用的对象
+     *
+     * @param key         对象哈希值
+     * @param value       对象
+     * @param entryWeight 对象估算大小(字节)
+     */
+    public synchronized void put(String key, V value, long entryWeight) {
+        if (value == null || entryWeight > maxEntryWeight) {
+            return;
+        }
+        Entry<V> old = entries.put(key, new Entry<>(value, entryWeight));
+        if (old != null) {
+            weight -= old.weight;
+        }
+        weight += entryWeight;
+        Iterator<Map.Entry<String, Entry<V>>> it = entries.entrySet().iterator();
+        while (weight > capacity && it.hasNext()) {
+            Entry<V> eldest = it.next().getValue();
+            it.remove();
+            weight -= eldest.weight;
+            Stats.increment("cache." + name + ".evictions");
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    private static class Entry<V> {
+
+        private final V value;
+
+        private final long weight;
+
+        Entry(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
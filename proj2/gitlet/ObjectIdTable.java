@@ -0,0 +1,175 @@
+package gitlet;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 有序的对象哈希值表，pack 索引、commit-graph 和 commit 索引共用的格式:
+ * <pre>
+ * fanout[256] | id[20]*count
+ * </pre>
+ * id 按字节序排序，fanout[b] 为首字节 <= b 的 id 个数。
+ * 查找时先用首字节确定区间，再对剩余部分二分查找
+ */
+
+public class ObjectIdTable {
+
+    /**
+     * 二进制哈希值长度
+     */
+    static final int ID_LENGTH = UID_LENGTH / 2;
+
+    private static final int FANOUT_SIZE = 256;
+
+    /**
+     * fanout 表长度
+     */
+    static final int FANOUT_LENGTH = FANOUT_SIZE * 4;
+
+    private final ByteBuffer buffer;
+
+    private final int fanoutOffset;
+
+    private final int idsOffset;
+
+    private final int count;
+
+    /**
+     * @param buffer       文件内容
+     * @param fanoutOffset fanout 表在文件中的偏移，哈希值紧随其后
+     */
+    public ObjectIdTable(ByteBuffer buffer, int fanoutOffset) {
+        this.buffer = buffer;
+        this.fanoutOffset = fanoutOffset;
+        this.idsOffset = fanoutOffset + FANOUT_LENGTH;
+        this.count = fanout(FANOUT_SIZE - 1);
+    }
+
+    /**
+     * 哈希值个数
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * 哈希值表之后的偏移，即文件中后续数据的起始位置
+     */
+    public int endOffset() {
+        return idsOffset + count * ID_LENGTH;
+    }
+
+    private int fanout(int b) {
+        return buffer.getInt(fanoutOffset + b * 4);
+    }
+
+    /**
+     * 比较第 i 个 id 与 key 的字节序
+     */
+    private int compare(int i, byte[] key) {
+        int base = idsOffset + i * ID_LENGTH;
+        for (int j = 0; j < ID_LENGTH; j += 1) {
+            int c = Integer.compare(buffer.get(base + j) & 0xff, key[j] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 找到第一个 >= key 的位置
+     */
+    private int lowerBound(byte[] key) {
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : fanout(first - 1);
+        int hi = fanout(first);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * 查找哈希值的位置
+     *
+     * @param key 完整的哈希值
+     * @return 位置，不存在返回 -1
+     */
+    public int find(String key) {
+        if (key == null || key.length() != UID_LENGTH || !isHex(key)) {
+            return -1;
+        }
+        byte[] id = hexToBytes(key);
+        int i = lowerBound(id);
+        return i < count && compare(i, id) == 0 ? i : -1;
+    }
+
+    /**
+     * 找到以 prefix 开头的哈希值所在的位置区间
+     *
+     * @param prefix 前缀
+     * @return 位置，有序
+     */
+    public List<Integer> findByPrefix(String prefix) {
+        List<Integer> res = new ArrayList<>();
+        if (!isHex(prefix) || prefix.length() > UID_LENGTH) {
+            return res;
+        }
+        StringBuilder padded = new StringBuilder(prefix);
+        while (padded.length() < UID_LENGTH) {
+            padded.append('0');
+        }
+        for (int i = lowerBound(hexToBytes(padded.toString())); i < count; i += 1) {
+            if (!getKey(i).startsWith(prefix)) {
+                break;
+            }
+            res.add(i);
+        }
+        return res;
+    }
+
+    /**
+     * 第 i 个哈希值
+     */
+    public String getKey(int i) {
+        byte[] id = new byte[ID_LENGTH];
+        for (int j = 0; j < ID_LENGTH; j += 1) {
+            id[j] = buffer.get(idsOffset + i * ID_LENGTH + j);
+        }
+        return bytesToHex(id, 0, ID_LENGTH);
+    }
+
+    /**
+     * 写入有序哈希值的 fanout 表和哈希值
+     *
+     * @param out        输出
+     * @param sortedKeys 有序的完整哈希值
+     */
+    public static void write(DataOutput out, List<String> sortedKeys) throws IOException {
+        int[] fanout = new int[FANOUT_SIZE];
+        for (String key : sortedKeys) {
+            fanout[Integer.parseInt(key.substring(0, 2), 16)] += 1;
+        }
+        int total = 0;
+        for (int n : fanout) {
+            total += n;
+            out.writeInt(total);
+        }
+        for (String key : sortedKeys) {
+            out.write(hexToBytes(key));
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 在两个仓库之间复制对象，用于 push 和 fetch。
+ * 先从要传输的 commit 出发遍历历史，遇到目标仓库已有的 commit 即停止，得到目标仓库缺少的 commit；
+ * 再遍历这些 commit 的目录对象，跳过目标仓库已有的目录和 blob，只复制缺少的对象。
+ * <p>
+ * blob 的复制是一个流水线: 遍历目录对象得到的 blob 放入有界队列，由固定数量的工作线程
+ * 读取并写入目标仓库，队列满时遍历等待。全部 blob 写入后再按目录、commit 的顺序写入，
+ * 父 commit 先于子 commit 写入，因此目标仓库中存在的对象引用的对象一定也存在。
+ * 工作线程数由系统属性 gitlet.transfer.workers 指定，默认为 CPU 核数
+ */
+
+public class ObjectTransfer {
+
+    /**
+     * 等待复制的 blob 个数上限
+     */
+    private static final int QUEUE_CAPACITY = 256;
+
+    /**
+     * 队列结束标记
+     */
+    private static final String END = "";
+
+    private final RepositoryPath source;
+
+    private final RepositoryPath target;
+
+    private final int workers;
+
+    /**
+     * 本次已放入队列的 blob
+     */
+    private final Set<String> queuedBlobs = new HashSet<>();
+
+    /**
+     * 已复制的目录对象，子目录在前
+     */
+    private final List<Tree> trees = new ArrayList<>();
+
+    private final Set<String> visitedTrees = new HashSet<>();
+
+    /**
+     * @param source 源仓库
+     * @param target 目标仓库
+     */
+    public ObjectTransfer(RepositoryPath source, RepositoryPath target) {
+        this.source = source;
+        this.target = target;
+        this.workers = Math.max(1, Integer.getInteger("gitlet.transfer.workers",
+                Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * 将 commit 及其历史中目标仓库缺少的对象复制到目标仓库
+     *
+     * @param commitKey 要传输的 commit
+     */
+    public void transfer(String commitKey) {
+        long start = System.nanoTime();
+        List<Commit> commits = new ArrayList<>();
+        for (String key : findMissingCommits(commitKey)) {
+            commits.add(source.getCommit(key));
+        }
+        copyBlobs(commits);
+        for (Tree tree : trees) {
+            target.saveTree(tree);
+            Stats.increment("transfer.trees");
+        }
+        for (Commit commit : commits) {
+            target.saveCommit(commit);
+            Stats.increment("transfer.commits");
+        }
+        Stats.rate("transfer.mb_per_s", Stats.get("transfer.bytes") / 1048576.0,
+                System.nanoTime() - start);
+    }
+
+    /**
+     * 找到目标仓库缺少的 commit
+     *
+     * @param commitKey 要传输的 commit
+     * @return 目标仓库缺少的 commit，父 commit 在前
+     */
+    public List<String> findMissingCommits(String commitKey) {
+        CommitGraph graph = source.getCommitGraph();
+        List<String> missing = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(commitKey);
+        visited.add(commitKey);
+        while (!queue.isEmpty()) {
+            String key = queue.poll();
+            // 目标仓库已有的 commit 的历史也一定存在
+            if (target.hasCommit(key)) {
+                continue;
+            }
+            missing.add(key);
+            for (String parent : graph.parents(key)) {
+                if (visited.add(parent)) {
+                    queue.add(parent);
+                }
+            }
+        }
+        missing.sort(Comparator.comparingInt(graph::generation));
+        return missing;
+    }
+
+    /**
+     * 遍历 commit 的目录对象，由工作线程并行复制缺少的 blob
+     */
+    private void copyBlobs(List<Commit> commits) {
+        boolean link = sameFileStore();
+        BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        ExecutorService pool = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "gitlet-transfer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < workers; i += 1) {
+            pool.execute(() -> copyWorker(queue, link, failure));
+        }
+        try {
+            for (Commit commit : commits) {
+                String treeKey = commit.getTreeKey();
+                if (source.hasTree(treeKey)) {
+                    collectTree(treeKey, queue);
+                } else {
+                    // 旧格式的 commit 直接保存文件列表
+                    for (String blobKey : commit.getTree().values()) {
+                        enqueue(blobKey, queue);
+                    }
+                }
+            }
+            for (int i = 0; i < workers; i += 1) {
+                queue.put(END);
+            }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException excp) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Transfer interrupted.");
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * 工作线程: 从队列中取出 blob 并复制，出错后继续取出剩余的 blob 以免遍历阻塞
+     */
+    private void copyWorker(BlockingQueue<String> queue, boolean link,
+                            AtomicReference<RuntimeException> failure) {
+        try {
+            for (String blobKey = queue.take(); !END.equals(blobKey); blobKey = queue.take()) {
+                if (failure.get() != null || target.hasBlob(blobKey)) {
+                    continue;
+                }
+                try {
+                    Stats.add("transfer.bytes", source.copyBlobTo(blobKey, target, link));
+                    Stats.increment("transfer.blobs");
+                } catch (RuntimeException excp) {
+                    failure.compareAndSet(null, excp);
+                }
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 遍历目录对象，目标仓库已有的目录连同其中的内容一起跳过
+     */
+    private void collectTree(String treeKey, BlockingQueue<String> queue)
+            throws InterruptedException {
+        if (!visitedTrees.add(treeKey) || target.hasTree(treeKey)) {
+            return;
+        }
+        Tree tree = source.readTree(treeKey);
+        for (Tree.Entry entry : tree.getEntries().values()) {
+            if (entry.isTree()) {
+                collectTree(entry.getKey(), queue);
+            } else {
+                enqueue(entry.getKey(), queue);
+            }
+        }
+        trees.add(tree);
+    }
+
+    private void enqueue(String blobKey, BlockingQueue<String> queue)
+            throws InterruptedException {
+        if (queuedBlobs.add(blobKey)) {
+            queue.put(blobKey);
+        }
+    }
+
+    /**
+     * 两个仓库的对象是否在同一个文件系统上
+     */
+    private boolean sameFileStore() {
+        try {
+            return Files.getFileStore(source.getBlobsDir().toPath())
+                    .equals(Files.getFileStore(target.getBlobsDir().toPath()));
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package gitlet;
+
+import java.util.*;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 计算发送方需要发送的对象，用于网络传输。接收方的仓库不可直接访问，
+ * 只知道接收方拥有的若干 commit(haves)，接收方也一定拥有这些 commit 的全部历史。
+ * <p>
+ * 从要发送的 commit(want) 出发遍历历史，跳过 haves 可达的 commit，得到接收方缺少的 commit；
+ * 缺少的 commit 的父 commit 中接收方已有的为边界，边界 commit 的目录和 blob 接收方一定已有，
+ * 遍历缺少的 commit 的目录对象时跳过这些对象
+ */
+
+public class ObjectWalk {
+
+    private final RepositoryPath repositoryPath;
+
+    /**
+     * 接收方缺少的 commit，父 commit 在前
+     */
+    private final List<String> commits = new ArrayList<>();
+
+    /**
+     * 接收方缺少的目录对象，子目录在前
+     */
+    private final List<String> trees = new ArrayList<>();
+
+    /**
+     * 接收方缺少的 blob
+     */
+    private final List<String> blobs = new ArrayList<>();
+
+    /**
+     * 已遍历或接收方已有的目录和 blob
+     */
+    private final Set<String> seenTrees = new HashSet<>();
+    private final Set<String> seenBlobs = new HashSet<>();
+
+    /**
+     * @param repositoryPath 发送方仓库
+     * @param want           要发送的 commit
+     * @param haves          接收方拥有的 commit，发送方没有的忽略
+     */
+    public ObjectWalk(RepositoryPath repositoryPath, String want, Collection<String> haves) {
+        this.repositoryPath = repositoryPath;
+        CommitGraph graph = repositoryPath.getCommitGraph();
+        Set<String> common = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        for (String have : haves) {
+            if (repositoryPath.hasCommit(have) && common.add(have)) {
+                queue.add(have);
+            }
+        }
+        while (!queue.isEmpty()) {
+            for (String parent : graph.parents(queue.poll())) {
+                if (common.add(parent)) {
+                    queue.add(parent);
+                }
+            }
+        }
+        Set<String> boundary = new LinkedHashSet<>();
+        Set<String> visited = new HashSet<>();
+        if (!common.contains(want)) {
+            queue.add(want);
+            visited.add(want);
+        }
+        while (!queue.isEmpty()) {
+            String key = queue.poll();
+            commits.add(key);
+            for (String parent : graph.parents(key)) {
+                if (common.contains(parent)) {
+                    boundary.add(parent);
+                } else if (visited.add(parent)) {
+                    queue.add(parent);
+                }
+            }
+        }
+        commits.sort(Comparator.comparingInt(graph::generation));
+        for (String key : boundary) {
+            markCommit(key);
+        }
+        for (String key : commits) {
+            collectCommit(key);
+        }
+    }
+
+    /**
+     * 接收方缺少的 commit，父 commit 在前
+     */
+    public List<String> getCommits() {
+        return commits;
+    }
+
+    /**
+     * 接收方缺少的目录对象，子目录在前
+     */
+    public List<String> getTrees() {
+        return trees;
+    }
+
+    /**
+     * 接收方缺少的 blob
+     */
+    public List<String> getBlobs() {
+        return blobs;
+    }
+
+    /**
+     * 标记边界 commit 的全部目录和 blob 为接收方已有
+     */
+    private void markCommit(String commitKey) {
+        Commit commit = repositoryPath.getCommit(commitKey);
+        String treeKey = commit.getTreeKey();
+        if (repositoryPath.hasTree(treeKey)) {
+            markTree(treeKey);
+        } else {
+            // 旧格式的 commit 直接保存文件列表
+            seenBlobs.addAll(commit.getTree().values());
+        }
+    }
+
+    private void markTree(String treeKey) {
+        if (!seenTrees.add(treeKey)) {
+            return;
+        }
+        for (Tree.Entry entry : repositoryPath.readTree(treeKey).getEntries().values()) {
+            if (entry.isTree()) {
+                markTree(entry.getKey());
+            } else {
+                seenBlobs.add(entry.getKey());
+            }
+        }
+    }
+
+    private void collectCommit(String commitKey) {
+        Commit commit = repositoryPath.getCommit(commitKey);
+        String treeKey = commit.getTreeKey();
+        if (repositoryPath.hasTree(treeKey)) {
+            collectTree(treeKey);
+        } else {
+            for (String blobKey : commit.getTree().values()) {
+                collectBlob(blobKey);
+            }
+        }
+    }
+
+    private void collectTree(String treeKey) {
+        if (!seenTrees.add(treeKey)) {
+            return;
+        }
+        for (Tree.Entry entry : repositoryPath.readTree(treeKey).getEntries().values()) {
+            if (entry.isTree()) {
+                collectTree(entry.getKey());
+            } else {
+                collectBlob(entry.getKey());
+            }
+        }
+        trees.add(treeKey);
+    }
+
+    private void collectBlob(String blobKey) {
+        if (seenBlobs.add(blobKey)) {
+            blobs.add(blobKey);
+        }
+    }
+}
@@ -0,0 +1,654 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static gitlet.Utils.*;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 打包存储的对象文件，由 pack 数据文件和 idx 索引文件组成
+ * <pre>
+ * pack: "GPAK" | version | count | { type(1) | encoding(1) | length(8) | data }*
+ * idx:  "GIDX" | version | fanout[256] | id[20]*count | type*count | offset(8)*count
+ * </pre>
+ * idx 中的 fanout 和 id 见 {@link ObjectIdTable}。对象按 encoding 存储:
+ * <pre>
+ * ENC_RAW:     对象内容
+ * ENC_DEFLATE: size(8) | deflate(对象内容)
+ * ENC_DELTA:   size(8) | baseId[20] | deltaLength(8) | deflate({@link Delta})
+ * </pre>
+ * 增量的基础对象在同一个 pack 中。版本 1 的 pack 没有 encoding，全部为原始内容
+ */
+
+public class PackFile {
+
+    /**
+     * 对象类型
+     */
+    static final byte OBJ_COMMIT = 1;
+    static final byte OBJ_BLOB = 2;
+    static final byte OBJ_TREE = 3;
+
+    private static final int PACK_MAGIC = 0x4750414b;
+
+    private static final int IDX_MAGIC = 0x47494458;
+
+    private static final int PACK_VERSION = 2;
+
+    private static final int IDX_VERSION = 1;
+
+    /**
+     * 对象的存储方式
+     */
+    static final byte ENC_RAW = 0;
+    static final byte ENC_DEFLATE = 1;
+    static final byte ENC_DELTA = 2;
+
+    /**
+     * 增量链的最大长度，限制还原对象时读取的增量个数
+     */
+    static final int MAX_DELTA_DEPTH = 10;
+
+    /**
+     * 超过该大小的对象不压缩，保持原始内容以便直接传输到工作目录
+     */
+    static final int COMPRESS_LIMIT = 64 << 20;
+
+    /**
+     * 对象存储内容和还原后的最大大小，即 Java 数组的最大长度。更大的 blob 保持松散存储
+     */
+    static final long MAX_ENTRY_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * pack 文件头长度: magic + version + count
+     */
+    private static final int PACK_HEADER_LENGTH = 12;
+
+    /**
+     * 版本 1 中每个对象头长度: type + length
+     */
+    private static final int V1_ENTRY_HEADER_LENGTH = 9;
+
+    /**
+     * 每个对象头长度: type + encoding + length
+     */
+    private static final int ENTRY_HEADER_LENGTH = 10;
+
+    /**
+     * 还原增量时使用的基础对象缓存容量
+     */
+    private static final long BASE_CACHE_CAPACITY = 64L << 20;
+
+    /**
+     * idx 文件头长度: magic + version
+     */
+    private static final int IDX_HEADER_LENGTH = 8;
+
+    private final File packFile;
+
+    private final File idxFile;
+
+    private final MappedByteBuffer idx;
+
+    private final ObjectIdTable ids;
+
+    private final int count;
+
+    private FileChannel packChannel;
+
+    /**
+     * pack 文件版本，打开 pack 文件时读取
+     */
+    private int packVersion;
+
+    private final ObjectCache<byte[]> baseCache =
+            new ObjectCache<>("delta-base", BASE_CACHE_CAPACITY, BASE_CACHE_CAPACITY);
+
+    private PackFile(File idxFile) throws IOException {
+        this.idxFile = idxFile;
+        String name = idxFile.getName();
+        this.packFile = join(idxFile.getParentFile(),
+                name.substring(0, name.length() - ".idx".length()) + ".pack");
+        try (FileChannel channel = FileChannel.open(idxFile.toPath(), StandardOpenOption.READ)) {
+            this.idx = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (idx.getInt(0) != IDX_MAGIC || idx.getInt(4) != IDX_VERSION) {
+            throw error("Corrupt pack index: %s", idxFile.getPath());
+        }
+        this.ids = new ObjectIdTable(idx, IDX_HEADER_LENGTH);
+        this.count = ids.size();
+    }
+
+    /**
+     * 打开 pack 索引文件
+     *
+     * @param idxFile idx 文件
+     * @return PackFile
+     */
+    public static PackFile open(File idxFile) {
+        try {
+            return new PackFile(idxFile);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    public File getPackFile() {
+        return packFile;
+    }
+
+    public File getIdxFile() {
+        return idxFile;
+    }
+
+    /**
+     * pack 中对象个数
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * 查找对象在索引中的位置
+     *
+     * @param key 对象哈希值
+     * @return 位置，不存在返回 -1
+     */
+    public int find(String key) {
+        return ids.find(key);
+    }
+
+    /**
+     * 是否包含对象
+     *
+     * @param key 对象哈希值
+     * @return 是否包含
+     */
+    public boolean contains(String key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * 获取某一类型的全部对象
+     *
+     * @param type 对象类型
+     * @return 对象哈希值(有序)
+     */
+    public List<String> keys(byte type) {
+        List<String> res = new ArrayList<>();
+        for (int i = 0; i < count; i += 1) {
+            if (getType(i) == type) {
+                res.add(getKey(i));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * 第 i 个对象的哈希值
+     */
+    public String getKey(int i) {
+        return ids.getKey(i);
+    }
+
+    /**
+     * 第 i 个对象的类型
+     */
+    public byte getType(int i) {
+        return idx.get(ids.endOffset() + i);
+    }
+
+    /**
+     * 第 i 个对象在 pack 文件中的偏移
+     */
+    private long getOffset(int i) {
+        return idx.getLong(ids.endOffset() + count + i * 8);
+    }
+
+    /**
+     * 读取对象内容
+     *
+     * @param key 对象哈希值
+     * @return 对象内容，不存在返回 null
+     */
+    public byte[] read(String key) {
+        int i = find(key);
+        return i < 0 ? null : read(i);
+    }
+
+    /**
+     * 读取第 i 个对象的内容，压缩和增量存储的对象会被还原
+     */
+    public byte[] read(int i) {
+        try {
+            EntryHeader header = readHeader(getOffset(i));
+            if (header.length > MAX_ENTRY_SIZE) {
+                throw error("Pack object too large: %s", getKey(i));
+            }
+            if (header.encoding == ENC_RAW) {
+                byte[] data = new byte[(int) header.length];
+                readFully(getPackChannel(), ByteBuffer.wrap(data), header.dataOffset);
+                return data;
+            }
+            ByteBuffer data = ByteBuffer.allocate((int) header.length);
+            readFully(getPackChannel(), data, header.dataOffset);
+            data.flip();
+            int size = readSize(data, i);
+            if (header.encoding == ENC_DEFLATE) {
+                return inflate(data, size);
+            }
+            byte[] baseId = new byte[ObjectIdTable.ID_LENGTH];
+            data.get(baseId);
+            byte[] delta = inflate(data, readSize(data, i));
+            byte[] target = Delta.apply(readBase(bytesToHex(baseId, 0, baseId.length)), delta);
+            if (target.length != size) {
+                throw error("Corrupt pack object: %s", getKey(i));
+            }
+            return target;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * 读取压缩或增量对象中记录的还原后大小
+     */
+    private int readSize(ByteBuffer data, int i) {
+        long size = data.getLong();
+        if (size < 0 || size > MAX_ENTRY_SIZE) {
+            throw error("Pack object too large: %s", getKey(i));
+        }
+        return (int) size;
+    }
+
+    /**
+     * 读取增量的基础对象，同一条增量链上的对象共用缓存
+     */
+    private byte[] readBase(String baseKey) {
+        byte[] base = baseCache.get(baseKey);
+        if (base == null) {
+            int i = find(baseKey);
+            if (i < 0) {
+                throw error("Missing delta base: %s", baseKey);
+            }
+            base = read(i);
+            baseCache.put(baseKey, base, base.length);
+        }
+        return base;
+    }
+
+    /**
+     * 第 i 个对象是否以原始内容存储，只有原始内容可以直接传输
+     */
+    public boolean isStoredRaw(int i) {
+        try {
+            return readHeader(getOffset(i)).encoding == ENC_RAW;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * 第 i 个对象还原后的大小
+     */
+    public long getObjectSize(int i) {
+        try {
+            EntryHeader header = readHeader(getOffset(i));
+            if (header.encoding == ENC_RAW) {
+                return header.length;
+            }
+            ByteBuffer size = ByteBuffer.allocate(8);
+            readFully(getPackChannel(), size, header.dataOffset);
+            return size.getLong(0);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * 读取以原始内容存储的第 i 个对象的前 n 个字节
+     */
+    public byte[] readPrefix(int i, int n) {
+        try {
+            EntryHeader header = readHeader(getOffset(i));
+            byte[] data = new byte[(int) Math.min(n, header.length)];
+            readFully(getPackChannel(), ByteBuffer.wrap(data), header.dataOffset);
+            return data;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * 将以原始内容存储的第 i 个对象跳过前 skip 个字节后的内容直接写入文件，不经过 Java 堆
+     *
+     * @param i      对象位置
+     * @param skip   跳过的字节数
+     * @param target 目标文件
+     */
+    public void transferTo(int i, long skip, File target) {
+        try {
+            EntryHeader header = readHeader(getOffset(i));
+            transfer(getPackChannel(), header.dataOffset + skip, header.length - skip, target);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * 读取 offset 处的对象头
+     */
+    private EntryHeader readHeader(long offset) throws IOException {
+        FileChannel channel = getPackChannel();
+        if (packVersion == 1) {
+            ByteBuffer header = ByteBuffer.allocate(V1_ENTRY_HEADER_LENGTH);
+            readFully(channel, header, offset);
+            return new EntryHeader(ENC_RAW, header.getLong(1), offset + V1_ENTRY_HEADER_LENGTH);
+        }
+        ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_LENGTH);
+        readFully(channel, header, offset);
+        return new EntryHeader(header.get(1), header.getLong(2), offset + ENTRY_HEADER_LENGTH);
+    }
+
+    private synchronized FileChannel getPackChannel() throws IOException {
+        if (packChannel == null) {
+            packChannel = FileChannel.open(packFile.toPath(), StandardOpenOption.READ);
+            ByteBuffer header = ByteBuffer.allocate(PACK_HEADER_LENGTH);
+            readFully(packChannel, header, 0);
+            packVersion = header.getInt(4);
+            if (header.getInt(0) != PACK_MAGIC || packVersion < 1 || packVersion > PACK_VERSION) {
+                throw error("Corrupt pack file: %s", packFile.getPath());
+            }
+        }
+        return packChannel;
+    }
+
+    private static byte[] inflate(ByteBuffer data, int size) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] out = new byte[size];
+            int n = 0;
+            while (n < size) {
+                int read = inflater.inflate(out, n, size - n);
+                if (read == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != size) {
+                throw new IllegalArgumentException("Corrupt compressed object.");
+            }
+            return out;
+        } catch (DataFormatException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+            byte[] buffer = new byte[1 << 16];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of pack file");
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * 释放 pack 文件句柄
+     */
+    public synchronized void close() {
+        if (packChannel != null) {
+            try {
+                packChannel.close();
+            } catch (IOException ignored) {
+                // 只读句柄，关闭失败无影响
+            }
+            packChannel = null;
+        }
+    }
+
+    /**
+     * 对象头
+     */
+    private static class EntryHeader {
+
+        private final byte encoding;
+
+        /**
+         * 存储的数据长度
+         */
+        private final long length;
+
+        private final long dataOffset;
+
+        EntryHeader(byte encoding, long length, long dataOffset) {
+            this.encoding = encoding;
+            this.length = length;
+            this.dataOffset = dataOffset;
+        }
+    }
+
+    /**
+     * 顺序写入新的 pack 文件，完成后生成排序的 idx 文件
+     */
+    public static class Writer {
+
+        private final File packDir;
+
+        private final File tmpPack;
+
+        private final DataOutputStream out;
+
+        /**
+         * k: 对象哈希值, v: {类型, 偏移}
+         */
+        private final TreeMap<String, long[]> entries = new TreeMap<>();
+
+        /**
+         * 增量存储的对象在增量链中的深度，k: 对象哈希值, v: 深度
+         */
+        private final Map<String, Integer> depths = new HashMap<>();
+
+        private long position;
+
+        public Writer(File packDir) {
+            this.packDir = packDir;
+            try {
+                Files.createDirectories(packDir.toPath());
+                this.tmpPack = createTempFileIn(packDir, ".pack");
+                this.out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(tmpPack), 1 << 16));
+                out.writeInt(PACK_MAGIC);
+                out.writeInt(PACK_VERSION);
+                // 对象个数在写完后回填
+                out.writeInt(0);
+                position = PACK_HEADER_LENGTH;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /**
+         * 是否已写入对象
+         */
+        public boolean contains(String key) {
+            return entries.containsKey(key);
+        }
+
+        /**
+         * 对象在增量链中的深度，非增量存储的对象为 0
+         */
+        public int depth(String key) {
+            return depths.getOrDefault(key, 0);
+        }
+
+        /**
+         * 写入一个对象，压缩后更小时以压缩形式存储，重复的对象会被忽略
+         *
+         * @param key  对象哈希值
+         * @param type 对象类型
+         * @param data 对象内容
+         */
+        public void add(String key, byte type, byte[] data) {
+            if (entries.containsKey(key)) {
+                return;
+            }
+            try {
+                byte[] compressed = data.length <= COMPRESS_LIMIT ? deflate(data) : null;
+                if (compressed != null && compressed.length + 8 < data.length) {
+                    ByteBuffer stored = ByteBuffer.allocate(8 + compressed.length);
+                    stored.putLong(data.length).put(compressed);
+                    write(key, type, ENC_DEFLATE, stored.array());
+                    Stats.increment("pack.objects.deflated");
+                } else {
+                    write(key, type, ENC_RAW, data);
+                }
+                Stats.add("pack.bytes.raw", data.length);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /**
+         * 以相对同一个 pack 中另一个对象的增量写入对象。基础对象不在 pack 中
+         * 或增量链过长时按 {@link #add} 写入
+         *
+         * @param key     对象哈希值
+         * @param type    对象类型
+         * @param data    对象内容
+         * @param baseKey 基础对象哈希值
+         * @param delta   相对基础对象的增量
+         */
+        public void addDelta(String key, byte type, byte[] data, String baseKey, byte[] delta) {
+            if (entries.containsKey(key)) {
+                return;
+            }
+            if (!entries.containsKey(baseKey) || depth(baseKey) >= MAX_DELTA_DEPTH) {
+                add(key, type, data);
+                return;
+            }
+            try {
+                byte[] compressed = deflate(delta);
+                ByteBuffer stored = ByteBuffer.allocate(8 + ObjectIdTable.ID_LENGTH + 8
+                        + compressed.length);
+                stored.putLong(data.length).put(hexToBytes(baseKey))
+                        .putLong(delta.length).put(compressed);
+                write(key, type, ENC_DELTA, stored.array());
+                depths.put(key, depth(baseKey) + 1);
+                Stats.increment("pack.objects.delta");
+                Stats.add("pack.bytes.raw", data.length);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        private void write(String key, byte type, byte encoding, byte[] stored)
+                throws IOException {
+            out.writeByte(type);
+            out.writeByte(encoding);
+            out.writeLong(stored.length);
+            out.write(stored);
+            entries.put(key, new long[]{type, position});
+            position += ENTRY_HEADER_LENGTH + stored.length;
+            Stats.add("pack.bytes.stored", stored.length);
+        }
+
+        /**
+         * 完成写入，以全部对象哈希值的 sha1 命名 pack
+         *
+         * @return 新的 PackFile，没有写入任何对象时返回 null
+         */
+        public PackFile finish() {
+            File tmpIdx = null;
+            try {
+                out.close();
+                if (entries.isEmpty()) {
+                    tmpPack.delete();
+                    return null;
+                }
+                try (RandomAccessFile raf = new RandomAccessFile(tmpPack, "rw")) {
+                    raf.seek(8);
+                    raf.writeInt(entries.size());
+                }
+                String name = "pack-" + sha1(new ArrayList<Object>(entries.keySet()));
+                File idxFile = join(packDir, name + ".idx");
+                tmpIdx = createTempFileIn(packDir, ".idx");
+                writeIdx(tmpIdx);
+                Files.move(tmpPack.toPath(), join(packDir, name + ".pack").toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                // idx 最后落盘，存在 idx 即表示 pack 完整
+                Files.move(tmpIdx.toPath(), idxFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                tmpIdx = null;
+                return open(idxFile);
+            } catch (IOException excp) {
+                // 重命名完成后临时文件已不存在，删除是空操作
+                tmpPack.delete();
+                if (tmpIdx != null) {
+                    tmpIdx.delete();
+                }
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /**
+         * 放弃写入，删除临时文件
+         */
+        public void abort() {
+            try {
+                out.close();
+            } catch (IOException excp) {
+                // 临时文件随后删除，忽略关闭失败
+            }
+            tmpPack.delete();
+        }
+
+        private void writeIdx(File file) throws IOException {
+            try (DataOutputStream idxOut = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+                idxOut.writeInt(IDX_MAGIC);
+                idxOut.writeInt(IDX_VERSION);
+                ObjectIdTable.write(idxOut, new ArrayList<>(entries.keySet()));
+                for (long[] entry : entries.values()) {
+                    idxOut.writeByte((int) entry[0]);
+                }
+                for (long[] entry : entries.values()) {
+                    idxOut.writeLong(entry[1]);
+                }
+            }
+        }
+    }
+}
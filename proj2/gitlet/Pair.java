@@ -1,17 +0,0 @@
-package gitlet;
-
-/**
- * @author 苍镜月
- * @version 1.0
- * @implNote
- */
-
-public class Pair {
-    String key;
-    Integer layer;
-
-    Pair(String key, Integer layer) {
-        this.key = key;
-        this.layer = layer;
-    }
-}
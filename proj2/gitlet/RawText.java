@@ -0,0 +1,101 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 按行切分的文件内容。行直接引用原始字节，不解码为字符串，
+ * 每行包含结尾的换行符，最后一行可以没有换行符
+ */
+
+public class RawText {
+
+    private final byte[] content;
+
+    /**
+     * 第 i 行为 content[lineStarts[i], lineStarts[i + 1])
+     */
+    private final int[] lineStarts;
+
+    public RawText(byte[] content) {
+        this.content = content;
+        int[] starts = new int[16];
+        int lines = 0;
+        int start = 0;
+        while (start < content.length) {
+            if (lines + 1 >= starts.length) {
+                starts = Arrays.copyOf(starts, starts.length * 2);
+            }
+            starts[lines++] = start;
+            int end = start;
+            while (end < content.length && content[end] != '\n') {
+                end += 1;
+            }
+            start = Math.min(end + 1, content.length);
+        }
+        starts[lines] = content.length;
+        this.lineStarts = Arrays.copyOf(starts, lines + 1);
+    }
+
+    /**
+     * 行数
+     */
+    public int size() {
+        return lineStarts.length - 1;
+    }
+
+    /**
+     * 两行内容是否相同
+     */
+    public boolean lineEquals(int i, RawText other, int j) {
+        return Arrays.equals(content, lineStarts[i], lineStarts[i + 1],
+                other.content, other.lineStarts[j], other.lineStarts[j + 1]);
+    }
+
+    /**
+     * 行内容的哈希值
+     */
+    public int lineHash(int i) {
+        int h = 1;
+        for (int p = lineStarts[i]; p < lineStarts[i + 1]; p += 1) {
+            h = 31 * h + content[p];
+        }
+        return h;
+    }
+
+    /**
+     * 第 i 行的内容，不含换行符
+     */
+    public String getLine(int i) {
+        int end = lineStarts[i + 1];
+        if (end > lineStarts[i] && content[end - 1] == '\n') {
+            end -= 1;
+        }
+        return new String(content, lineStarts[i], end - lineStarts[i], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 最后一行是否缺少换行符
+     */
+    public boolean isMissingNewlineAtEnd() {
+        return content.length > 0 && content[content.length - 1] != '\n';
+    }
+
+    /**
+     * 写入 [from, to) 行的原始内容
+     */
+    public void writeLines(ByteArrayOutputStream out, int from, int to) {
+        out.write(content, lineStarts[from], lineStarts[to] - lineStarts[from]);
+    }
+
+    /**
+     * [from, to) 行的内容是否与另一段相同
+     */
+    public boolean rangeEquals(int from, int to, RawText other, int otherFrom, int otherTo) {
+        return Arrays.equals(content, lineStarts[from], lineStarts[to],
+                other.content, other.lineStarts[otherFrom], other.lineStarts[otherTo]);
+    }
+}
@@ -1,9 +1,15 @@
 package gitlet;
 
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
+import static gitlet.BinaryCodec.*;
+import static gitlet.Utils.deserialize;
 import static gitlet.Utils.errorAndExit;
 
 /**
@@ -14,6 +20,15 @@ import static gitlet.Utils.errorAndExit;
 
 public class Remote implements Serializable {
 
+    private static final long serialVersionUID = -681960158648001848L;
+
+    /**
+     * 二进制编码的魔数 "GRMT"
+     */
+    private static final int MAGIC = 0x47524d54;
+
+    private static final int VERSION = 1;
+
     /**
      * remote 信息
      * key: 远程仓库名
@@ -21,18 +36,34 @@ public class Remote implements Serializable {
      */
     private Map<String, RepositoryPath> remoteMap;
 
+    /**
+     * gitlet:// 远程仓库
+     * key: 远程仓库名
+     * value: 远程仓库地址
+     */
+    private Map<String, String> urlMap;
+
     public Remote() {
         remoteMap = new HashMap<>();
+        urlMap = new HashMap<>();
     }
 
     /**
      * 添加远程分支信息
      *
      * @param remoteName 远程仓库名
-     * @param remotePath 远程仓库路径
+     * @param remotePath 远程仓库路径或 gitlet://host:port/path 地址
      */
     public void addRemote(String remoteName, String remotePath) {
         checkRemoteNameExistsAndThrow(remoteName);
+        if (NetworkProtocol.isUrl(remotePath)) {
+            if (NetworkProtocol.parseUrl(remotePath) == null) {
+                errorAndExit("Invalid remote URL.");
+            }
+            urlMap.put(remoteName, remotePath);
+            Repository.REPO_PATH.saveRemote(this);
+            return;
+        }
         // 去掉/.gitlet后缀
         String actualRemotePath = remotePath.substring(0, remotePath.length() - 8);
         remoteMap.put(remoteName, new RepositoryPath(actualRemotePath));
@@ -47,6 +78,7 @@ public class Remote implements Serializable {
     public void removeRemote(String remoteName) {
         checkRemoteNameNotExistsAndThrow(remoteName);
         remoteMap.remove(remoteName);
+        urlMap.remove(remoteName);
         Repository.REPO_PATH.saveRemote(this);
     }
 
@@ -56,7 +88,7 @@ public class Remote implements Serializable {
      * @param remoteName 远程仓库名
      */
     private void checkRemoteNameExistsAndThrow(String remoteName) {
-        if (remoteMap.containsKey(remoteName)) {
+        if (remoteMap.containsKey(remoteName) || urlMap.containsKey(remoteName)) {
             errorAndExit("A remote with that name already exists.");
         }
     }
@@ -67,33 +99,80 @@ public class Remote implements Serializable {
      * @param remoteName 远程仓库名
      */
     private void checkRemoteNameNotExistsAndThrow(String remoteName) {
-        if (!remoteMap.containsKey(remoteName)) {
+        if (!remoteMap.containsKey(remoteName) && !urlMap.containsKey(remoteName)) {
             errorAndExit("A remote with that name does not exist.");
         }
     }
 
     /**
-     * 校验远程仓库路径合法性
+     * 校验远程仓库合法性并获取远程仓库
      *
      * @param remoteName 远程仓库名
+     * @return 远程仓库
      */
-    public void checkRemotePath(String remoteName) {
+    public RemoteRepository openRemote(String remoteName) {
         // 校验仓库名字是否存在
         checkRemoteNameNotExistsAndThrow(remoteName);
-        RepositoryPath remoteRepositoryPath = remoteMap.get(remoteName);
-        // 校验.gitlet文件夹是否存在
-        if (!remoteRepositoryPath.getGitletDir().exists()) {
+        RemoteRepository remoteRepository = urlMap.containsKey(remoteName)
+                ? new NetworkRemote(urlMap.get(remoteName))
+                : new LocalRemote(remoteMap.get(remoteName));
+        // 校验远程仓库是否存在
+        if (!remoteRepository.exists()) {
+            remoteRepository.close();
             errorAndExit("Remote directory not found.");
         }
+        return remoteRepository;
     }
 
     /**
-     * 获取远程仓库路径
+     * 二进制编码:
+     * <pre>
+     * "GRMT" | version | count(4) | {remoteName | 远程仓库工作目录或 gitlet:// 地址}*
+     * </pre>
      *
-     * @param remoteName 远程仓库名
-     * @return 远程仓库路径
+     * @return 编码后的数据
      */
-    public RepositoryPath getRepositoryPath(String remoteName) {
-        return remoteMap.get(remoteName);
+    public byte[] encode() {
+        Map<String, String> locations = new TreeMap<>(urlMap);
+        for (Map.Entry<String, RepositoryPath> entry : remoteMap.entrySet()) {
+            locations.put(entry.getKey(), entry.getValue().getCwd().getPath());
+        }
+        return BinaryCodec.encode(MAGIC, VERSION, out -> {
+            out.writeInt(locations.size());
+            for (Map.Entry<String, String> entry : locations.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+        });
+    }
+
+    /**
+     * 解析存储的 remote 数据，兼容旧的 Java 序列化格式
+     *
+     * @param data 存储的数据
+     * @return Remote
+     */
+    static Remote fromStored(byte[] data) {
+        if (!hasMagic(data, MAGIC)) {
+            Remote remote = deserialize(data, Remote.class);
+            remote.urlMap = new HashMap<>();
+            return remote;
+        }
+        try (DataInputStream in = open(data, MAGIC, VERSION)) {
+            Remote remote = new Remote();
+            int count = in.readInt();
+            for (int i = 0; i < count; i += 1) {
+                String remoteName = readString(in);
+                String location = readString(in);
+                if (NetworkProtocol.isUrl(location)) {
+                    remote.urlMap.put(remoteName, location);
+                } else {
+                    remote.remoteMap.put(remoteName, new RepositoryPath(new File(location)));
+                }
+            }
+            return remote;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 }
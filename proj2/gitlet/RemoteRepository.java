@@ -0,0 +1,68 @@
+package gitlet;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 远程仓库，push 和 fetch 通过该接口访问远程仓库。
+ * 本地路径的远程仓库由 {@link LocalRemote} 直接读写，gitlet:// 远程仓库由 {@link NetworkRemote} 通过网络访问
+ */
+
+public interface RemoteRepository extends AutoCloseable {
+
+    /**
+     * 远程仓库是否存在
+     *
+     * @return 是否存在
+     */
+    boolean exists();
+
+    /**
+     * 对远程仓库加锁，直到 {@link #close()} 释放。gitlet:// 远程仓库由服务端加锁
+     *
+     * @param branchName 远程分支名
+     * @param update     是否会更新该分支(push)，否则只读取(fetch)
+     */
+    default void lock(String branchName, boolean update) {
+    }
+
+    /**
+     * 是否先于本地仓库加锁。两个仓库之间按固定顺序加锁，互相 fetch、pull 或 push 时不会死锁
+     *
+     * @param repositoryPath 本地仓库
+     * @return 是否先对远程仓库加锁
+     */
+    default boolean locksBefore(RepositoryPath repositoryPath) {
+        return false;
+    }
+
+    /**
+     * 根据分支名获取远程仓库的分支(允许为空)
+     *
+     * @param branchName 分支名
+     * @return Head Commit Key，不存在返回 null
+     */
+    String getBranch(String branchName);
+
+    /**
+     * 将远程仓库的 commit 及其历史中本地仓库缺少的对象复制到本地仓库
+     *
+     * @param commitKey      远程仓库的 commit
+     * @param repositoryPath 本地仓库
+     */
+    void fetch(String commitKey, RepositoryPath repositoryPath);
+
+    /**
+     * 将本地仓库的 commit 及其历史中远程仓库缺少的对象复制到远程仓库，并更新远程仓库的分支
+     *
+     * @param branchName     远程分支名
+     * @param commitKey      本地仓库的 commit
+     * @param repositoryPath 本地仓库
+     */
+    void push(String branchName, String commitKey, RepositoryPath repositoryPath);
+
+    /**
+     * 释放连接等资源
+     */
+    @Override
+    void close();
+}
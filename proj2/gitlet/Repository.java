@@ -1,9 +1,13 @@
 package gitlet;
 
 import java.io.File;
-import java.nio.charset.StandardCharsets;
+import java.net.InetAddress;
 import java.util.*;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static gitlet.Utils.*;
 
@@ -16,6 +20,11 @@ import static gitlet.Utils.*;
  */
 public class Repository {
 
+    /**
+     * 文件个数达到该值时并行处理
+     */
+    private static final int PARALLEL_THRESHOLD = 64;
+
     public static final RepositoryPath REPO_PATH = new RepositoryPath();
 
     public static void init() {
@@ -29,6 +38,7 @@ public class Repository {
         // 创建 obj 文件夹及其子文件夹
         mkdir(REPO_PATH.getObjectsDir());
         mkdir(REPO_PATH.getCommitsDir());
+        mkdir(REPO_PATH.getTreesDir());
         mkdir(REPO_PATH.getBlobsDir());
         // 创建 refs 文件夹及其子文件夹
         mkdir(REPO_PATH.getRefsDir());
@@ -59,30 +69,67 @@ public class Repository {
     }
 
     /**
-     * add 添加文件到暂存区
+     * add 添加文件到暂存区，文件夹会递归展开为其中未被 .gitletignore 忽略的文件，
+     * 直接指定的文件或文件夹本身不检查忽略规则。
+     * 文件哈希值的计算和 blob 的写入在 fork-join 线程池中并行完成，暂存区只保存一次
      *
-     * @param fileName 文件名
+     * @param fileNames 文件名或文件夹名
      */
-    public static void add(String fileName) {
-        File file = join(REPO_PATH.getCwd(), fileName);
-        // 文件不存在
-        if (!file.exists()) {
-            errorAndExit("File does not exist.");
+    public static void add(List<String> fileNames) {
+        List<String> paths = new ArrayList<>();
+        for (String fileName : fileNames) {
+            File file = join(REPO_PATH.getCwd(), fileName);
+            if (file.isDirectory()) {
+                String dir = REPO_PATH.relativePath(file);
+                paths.addAll(FileWalk.walk(REPO_PATH.getCwd(), dir,
+                        REPO_PATH.getWorkingTree().getIgnoreRules()));
+            } else if (file.exists()) {
+                paths.add(REPO_PATH.relativePath(file));
+            } else {
+                // 文件不存在
+                errorAndExit("File does not exist.");
+            }
         }
-        byte[] fileContent = readContents(file);
-        String key = sha1(fileContent);
-        // 读取暂存区
-        Stage stage = REPO_PATH.getStage();
-        // 如果有删除记录，删除 rm
-        stage.cancelRemove(fileName);
-        // 如果不存在 blob 且无同一 hash 的 blob，则添加 blob
         Commit curCommit = REPO_PATH.getCurrCommit();
-        String blobKey = curCommit.getBlobKey(fileName);
-        // 如果当前提交中没有该文件，或者文件内容已经改变，则添加
-        if (!key.equals(blobKey)) {
-            REPO_PATH.createAndSaveBlob(key, fileContent, fileName);
-            stage.addFile(fileName, key);
+        StatCache statCache = REPO_PATH.getStatCache();
+        // k: 文件名, v: 文件内容哈希值
+        Map<String, String> fileKeys = paths.parallelStream()
+                .distinct()
+                .collect(Collectors.toConcurrentMap(path -> path,
+                    path -> hashAndSaveBlob(path, curCommit, statCache)));
+
+        Map<String, String> addFiles = new TreeMap<>();
+        List<String> unchangedFiles = new ArrayList<>();
+        fileKeys.forEach((path, key) -> {
+            // 如果当前提交中没有该文件，或者文件内容已经改变，则添加
+            if (key.equals(curCommit.getBlobKey(path))) {
+                unchangedFiles.add(path);
+            } else {
+                addFiles.put(path, key);
+            }
+        });
+        REPO_PATH.getStage().addFiles(addFiles, unchangedFiles);
+    }
+
+    /**
+     * 计算文件哈希值，文件内容与当前提交不同时保存 blob
+     *
+     * @param path      文件名
+     * @param curCommit 当前提交
+     * @param statCache 文件状态缓存
+     * @return 文件内容哈希值
+     */
+    private static String hashAndSaveBlob(String path, Commit curCommit, StatCache statCache) {
+        File file = join(REPO_PATH.getCwd(), path);
+        // 文件状态未变化时直接使用缓存的哈希值，否则流式计算
+        String key = statCache.hash(file, path);
+        if (key.equals(curCommit.getBlobKey(path))) {
+            return key;
         }
+        // 以复制时实际计算出的哈希值为准，避免文件在两次读取之间被修改
+        String savedKey = REPO_PATH.createAndSaveBlob(file);
+        statCache.update(file, path, savedKey);
+        return savedKey;
     }
 
     /**
@@ -160,11 +207,25 @@ public class Repository {
         }
         if (commit.hasFile(fileName)) {
             stage.removeFile(fileName);
+            deleteFromCwd(fileName);
+        }
+    }
 
-            File file = new File(fileName);
-            if (file.exists()) {
-                file.delete();
-            }
+    /**
+     * 删除工作目录中的文件，并删除因此变空的上层目录
+     *
+     * @param fileName 文件路径，以 / 分隔
+     */
+    private static void deleteFromCwd(String fileName) {
+        File cwd = REPO_PATH.getCwd();
+        File file = join(cwd, fileName);
+        if (!file.delete()) {
+            return;
+        }
+        // 目录不为空时 delete 失败
+        File dir = file.getParentFile();
+        while (!dir.equals(cwd) && dir.delete()) {
+            dir = dir.getParentFile();
         }
     }
 
@@ -172,40 +233,76 @@ public class Repository {
      * log 日志，从当前提交开始到初始提交
      */
     public static void log() {
+        log(Integer.MAX_VALUE, null, false);
+    }
+
+    /**
+     * log [-n count] [--since date] [--oneline] 沿第一个父节点逐个读取 commit 并写入缓冲输出，
+     * 只读取 commit 头部信息，不展开文件列表。遇到早于 since 的 commit 时停止
+     *
+     * @param limit   最多输出的 commit 个数
+     * @param since   最早的提交时间，为 null 时不限制
+     * @param oneline 是否每个 commit 只输出一行
+     */
+    public static void log(int limit, Date since, boolean oneline) {
+        LogPrinter printer = new LogPrinter(oneline);
         Commit commit = REPO_PATH.getCurrCommit();
-        while (commit != null) {
-            message("%s", commit);
+        for (int count = 0; commit != null && count < limit; count += 1) {
+            if (since != null && commit.getTime() < since.getTime()) {
+                break;
+            }
+            printer.print(commit);
             commit = REPO_PATH.getCommit(commit.getFirstParentKey());
         }
+        printer.flush();
     }
 
     /**
-     * global-log 全局日志
+     * global-log 全局日志，按提交时间从新到旧输出，不读取 commit 对象
      */
     public static void globalLog() {
-        List<String> commitKeys = plainFilenamesIn(REPO_PATH.getCommitsDir());
-        for (String commitKey : commitKeys) {
-            message("%s", REPO_PATH.getCommit(commitKey));
+        globalLog(message -> true);
+    }
+
+    /**
+     * global-log --grep [text] / global-log --regex [pattern]
+     * 只输出提交信息包含 text 或匹配正则表达式的 commit
+     *
+     * @param pattern 子串或正则表达式
+     * @param regex   pattern 是否为正则表达式
+     */
+    public static void globalLog(String pattern, boolean regex) {
+        Predicate<String> filter;
+        if (regex) {
+            try {
+                filter = Pattern.compile(pattern).asPredicate();
+            } catch (PatternSyntaxException excp) {
+                errorAndExit("Invalid pattern.");
+                return;
+            }
+        } else {
+            filter = messageText -> messageText.contains(pattern);
         }
+        globalLog(filter);
+    }
+
+    private static void globalLog(Predicate<String> filter) {
+        LogPrinter printer = new LogPrinter(false);
+        REPO_PATH.getMessageIndex().search(filter, printer::print);
+        printer.flush();
     }
 
     /**
-     * find 找到指定提交消息的 CommitId
+     * find 找到指定提交消息的 CommitId，只在提交信息索引中查找一次
      *
      * @param message 提交消息
      */
     public static void find(String message) {
-        List<String> commitKeys = plainFilenamesIn(REPO_PATH.getCommitsDir());
-        boolean exist = false;
-        for (String commitKey : commitKeys) {
-            if (REPO_PATH.getCommit(commitKey).getMessage().equals(message)) {
-                message("%s", commitKey);
-                exist = true;
-            }
-        }
-        if (!exist) {
+        List<String> commitKeys = REPO_PATH.getMessageIndex().find(message);
+        if (commitKeys.isEmpty()) {
             errorAndExit("Found no commit with that message.");
         }
+        commitKeys.forEach(Utils::message);
     }
 
     /**
@@ -217,7 +314,7 @@ public class Repository {
 
         // === Branches ===
         String currBranch = REPO_PATH.getCurrBranch();
-        List<String> branches = plainFilenamesIn(REPO_PATH.getHeadsDir());
+        List<String> branches = REPO_PATH.getBranchNames();
         message("=== Branches ===");
         for (String branch : branches) {
             if (branch.equals(currBranch)) {
@@ -230,13 +327,13 @@ public class Repository {
 
         // === Staged Files ===
         message("=== Staged Files ===");
-        Set<String> addFiles = stage.getAddFiles().keySet();
+        Set<String> addFiles = new TreeSet<>(stage.getAddFiles().keySet());
         addFiles.forEach(Utils::message);
         System.out.println();
 
         // === Removed Files ===
         message("=== Removed Files ===");
-        Set<String> removeFiles = new HashSet<>(stage.getRemoveFiles());
+        Set<String> removeFiles = new TreeSet<>(stage.getRemoveFiles());
         removeFiles.forEach(Utils::message);
         System.out.println();
 
@@ -244,29 +341,26 @@ public class Repository {
         message("=== Modifications Not Staged For Commit ===");
         Map<String, String> commitTree = commit.getTree();
         Set<String> trackedFiles = commitTree.keySet();
+        WorkingTree workingTree = REPO_PATH.getWorkingTree();
         // 文件路径基于字典序排序
         List<String> sortedFilePaths = trackedFiles.stream().sorted().collect(Collectors.toList());
         for (String filePath : sortedFilePaths) {
-            File file = join(REPO_PATH.getCwd(), filePath);
-            if (file.exists()) {
-                // 文件存在，基于sha1哈希值判断是否修改
-                String contentKey = sha1(readContents(file));
-                if (!Objects.equals(contentKey, commitTree.get(filePath))) {
-                    message("%s (modified)", filePath);
-                }
-            } else {
+            // 基于sha1哈希值判断是否修改，文件状态未变化时不重新计算
+            String contentKey = workingTree.hash(filePath);
+            if (contentKey == null) {
                 // 文件不存在，判断暂存区是否已添加删除，如果没有则打印
                 if (!stage.isRemove(filePath)) {
                     message("%s (deleted)", filePath);
                 }
+            } else if (!contentKey.equals(commitTree.get(filePath))) {
+                message("%s (modified)", filePath);
             }
         }
         System.out.println();
 
         // === Untracked Files ===
         message("=== Untracked Files ===");
-        List<String> allFiles = plainFilenamesIn(REPO_PATH.getCwd());
-        for (String file : allFiles) {
+        for (String file : workingTree.getFiles()) {
             if (!trackedFiles.contains(file)
                     && !addFiles.contains(file)
                     && !removeFiles.contains(file)) {
@@ -288,22 +382,21 @@ public class Repository {
                 .map(REPO_PATH::getCommit)
                 .orElseGet(REPO_PATH::getCurrCommit);
         String blobKey = commit.getBlobKey(fileName);
-        Blob blob = REPO_PATH.getBlob(blobKey);
-        if (blob == null) {
+        if (!writeBlobToCWD(blobKey, fileName)) {
             errorAndExit("File does not exist in that commit.");
         }
-        writeBlobToCWD(blob, fileName);
     }
 
     /**
      * 将 Blob 写入到工作目录
      *
-     * @param blob     Blob
-     * @param fileName
+     * @param blobKey  blob 哈希值
+     * @param fileName 文件名
+     * @return blob 是否存在
      */
-    private static void writeBlobToCWD(Blob blob, String fileName) {
+    private static boolean writeBlobToCWD(String blobKey, String fileName) {
         File file = join(REPO_PATH.getCwd(), fileName);
-        writeContents(file, blob.getContent());
+        return REPO_PATH.checkoutBlob(blobKey, file);
     }
 
     /**
@@ -329,39 +422,70 @@ public class Repository {
     }
 
     /**
-     * checkout 从 from 分支 到 to 分支
+     * checkout 从 from 分支 到 to 分支。只写入两个 commit 之间不同的文件，
+     * 相同的文件只在工作目录中被修改或删除时重新写入，文件在 fork-join 线程池中并行写入
      *
      * @param from base commit
      * @param to   target commit
      */
     private static void checkout(Commit from, Commit to) {
-        checkUntrackedFiles(from, to);
+        Set<String> changedFiles = REPO_PATH.changedFiles(from, to);
+        checkUntrackedFiles(from, to, changedFiles);
         // 删除 from 存在的文件但是 to 不存在
-        for (String fileName : from.getTree().keySet()) {
+        for (String fileName : changedFiles) {
             if (!to.hasFile(fileName)) {
-                join(REPO_PATH.getCwd(), fileName).delete();
+                deleteFromCwd(fileName);
+                Stats.increment("checkout.files.deleted");
             }
         }
         // 目标分支存在
-        for (String fileName : to.getTree().keySet()) {
-            String blobKey = to.getBlobKey(fileName);
-            Blob blob = REPO_PATH.getBlob(blobKey);
-            if (blob == null) {
-                errorAndExit("File does not exist in that commit.");
-            }
-            writeBlobToCWD(blob, fileName);
+        StatCache statCache = REPO_PATH.getStatCache();
+        Map<String, String> toTree = to.getTree();
+        Stream<String> fileNames = toTree.size() >= PARALLEL_THRESHOLD
+                ? toTree.keySet().parallelStream() : toTree.keySet().stream();
+        List<String> missingFiles = fileNames
+                .filter(fileName -> !checkoutFile(fileName, toTree.get(fileName),
+                        changedFiles.contains(fileName), statCache))
+                .collect(Collectors.toList());
+        if (!missingFiles.isEmpty()) {
+            errorAndExit("File does not exist in that commit.");
         }
         cleanStage();
     }
 
+    /**
+     * 将文件写入工作目录，内容未改变且工作目录中的文件与 blob 一致时跳过
+     *
+     * @param fileName  文件名
+     * @param blobKey   blob 哈希值
+     * @param changed   文件在两个 commit 之间是否不同
+     * @param statCache 文件状态缓存
+     * @return blob 是否存在
+     */
+    private static boolean checkoutFile(String fileName, String blobKey, boolean changed,
+                                        StatCache statCache) {
+        File file = join(REPO_PATH.getCwd(), fileName);
+        if (!changed && file.isFile() && blobKey.equals(statCache.hash(file, fileName))) {
+            return true;
+        }
+        if (!writeBlobToCWD(blobKey, fileName)) {
+            return false;
+        }
+        statCache.update(file, fileName, blobKey);
+        Stats.increment("checkout.files.written");
+        Stats.add("checkout.bytes.written", file.length());
+        return true;
+    }
+
     /**
      * 如果工作目录中存在一个未跟踪的文件，当前分支不存在但目标分支中存在
      *
-     * @param from base commit
-     * @param to   target commit
+     * @param from         base commit
+     * @param to           target commit
+     * @param changedFiles 两个 commit 之间内容不同的文件
      */
-    private static void checkUntrackedFiles(Commit from, Commit to) {
-        for (String fileName : to.getTree().keySet()) {
+    private static void checkUntrackedFiles(Commit from, Commit to, Set<String> changedFiles) {
+        for (String fileName : changedFiles) {
             if (!from.hasFile(fileName) 
                     && join(REPO_PATH.getCwd(), fileName).exists()) {
                 errorAndExit("There is an untracked file in the way; "
@@ -383,6 +507,9 @@ public class Repository {
      * @param branchName 分支名
      */
     public static void branch(String branchName) {
+        if (!RepositoryPath.isValidBranchName(branchName)) {
+            errorAndExit("Invalid branch name.");
+        }
         REPO_PATH.checkBranchExistsAndThrow(branchName);
         REPO_PATH.saveBranch(branchName, REPO_PATH.getCurrCommitId());
     }
@@ -400,7 +527,7 @@ public class Repository {
             errorAndExit("Cannot remove the current branch.");
         }
         // delete
-        join(REPO_PATH.getHeadsDir(), branchName).delete();
+        REPO_PATH.removeBranch(branchName);
     }
 
     /**
@@ -422,7 +549,7 @@ public class Repository {
      * 1. modified in target but not in base -> target (staged for addition)
      * 2. modified in base but not in target -> base (no need for stage)
      * 3.1. modified in base and target in same way -> same (no need for stage)
-     * 3.2 modified in base and target in different way -> conflict
+     * 3.2 modified in base and target in different way -> merge lines, overlapping changes conflict
      * 4. not in split nor target but in base -> base (no need for stage)
      * 5. not in split nor base but in target -> target (staged for addition)
      * 6. unmodified in base but not present in target -> remove (staged for deletion)
@@ -446,7 +573,7 @@ public class Repository {
         Commit base = REPO_PATH.getCurrCommit();
         Commit target = REPO_PATH.getCommit(REPO_PATH.getBranchNotNull(branchName));
 
-        checkUntrackedFiles(base, target);
+        checkUntrackedFiles(base, target, REPO_PATH.changedFiles(base, target));
 
         // 找到相交节点
         Commit splitPoint = REPO_PATH.findSplitPoint(base, target);
@@ -481,11 +608,9 @@ public class Repository {
         Map<String, String> targetCommitTree = target.getTree();
         Map<String, String> splitCommitTree = split.getTree();
 
-        Set<String> files = new HashSet<>();
-        files.addAll(baseCommitTree.keySet());
-        files.addAll(targetCommitTree.keySet());
-
-        for (String fileName : files) {
+        // 只有目标分支相对公共父节点修改过的文件需要处理，相同的子目录直接跳过
+        List<String> mergedFiles = new ArrayList<>();
+        for (String fileName : REPO_PATH.changedFiles(split, target)) {
             String baseBlobKey = baseCommitTree.get(fileName);
             String targetBlobKey = targetCommitTree.get(fileName);
             String splitBlobKey = splitCommitTree.get(fileName);
@@ -500,10 +625,7 @@ public class Repository {
                 // 6. unmodified in base but not present in target -> remove (staged for deletion)
                 } else {
                     stage.removeFile(fileName);
-                    File file = join(REPO_PATH.getCwd(), fileName);
-                    if (file.exists()) {
-                        file.delete();
-                    }
+                    deleteFromCwd(fileName);
                 }
             }
             // 2. modified in base but not in target (no need for stage)
@@ -517,28 +639,193 @@ public class Repository {
             if (Objects.equals(targetBlobKey, baseBlobKey)) {
                 continue;
             }
-            // 3.2 modified in base and target in different way -> conflict
+            // 3.2 modified in base and target in different way -> merge lines
             if (!Objects.equals(targetBlobKey, splitBlobKey) 
                     && !Objects.equals(baseBlobKey, splitBlobKey)) {
-                // 处理冲突
-                message("Encountered a merge conflict.");
-                byte[] content = ("<<<<<<< HEAD\n" 
-                        + (baseBlobKey == null ? "" : new String(
-                            readObject(join(REPO_PATH.getBlobsDir(), baseBlobKey), 
-                                Blob.class).getContent(), 
-                            StandardCharsets.UTF_8)) 
-                        + "=======\n" 
-                        + (targetBlobKey == null ? "" : new String(
-                            readObject(join(REPO_PATH.getBlobsDir(), targetBlobKey), 
-                                Blob.class).getContent(), 
-                            StandardCharsets.UTF_8)) 
-                        + ">>>>>>>\n").getBytes(StandardCharsets.UTF_8);
-                String mergeBlobKey = sha1(content);
-                REPO_PATH.createAndSaveBlob(mergeBlobKey, content, fileName);
-                stage.addFile(fileName, mergeBlobKey);
-                writeContents(join(REPO_PATH.getCwd(), fileName), content);
+                mergedFiles.add(fileName);
             }
         }
+
+        // 逐行合并两方都修改过的文件，文件较多时并行处理
+        Stream<String> fileNames = mergedFiles.size() >= PARALLEL_THRESHOLD
+                ? mergedFiles.parallelStream() : mergedFiles.stream();
+        Map<String, MergeText> results = fileNames.collect(Collectors.toMap(fileName -> fileName,
+                fileName -> mergeFile(splitCommitTree.get(fileName),
+                        baseCommitTree.get(fileName), targetCommitTree.get(fileName))));
+        boolean conflict = false;
+        for (String fileName : mergedFiles) {
+            byte[] content = results.get(fileName).getContent();
+            conflict |= results.get(fileName).hasConflict();
+            String mergeBlobKey = sha1(content);
+            REPO_PATH.createAndSaveBlob(mergeBlobKey, content);
+            stage.addFile(fileName, mergeBlobKey);
+            // 一方删除时文件所在的目录可能已经被删除
+            File file = join(REPO_PATH.getCwd(), fileName);
+            mkdirsFor(file);
+            writeContents(file, content);
+        }
+        if (conflict) {
+            message("Encountered a merge conflict.");
+        }
+    }
+
+    /**
+     * 合并两方都修改过的文件。一方删除另一方修改时整个文件作为冲突
+     *
+     * @param splitBlobKey  公共祖先的 blob，不存在为 null
+     * @param baseBlobKey   当前分支的 blob，删除为 null
+     * @param targetBlobKey 目标分支的 blob，删除为 null
+     * @return 合并结果
+     */
+    private static MergeText mergeFile(String splitBlobKey, String baseBlobKey,
+                                       String targetBlobKey) {
+        byte[] ours = baseBlobKey == null ? null : REPO_PATH.getBlob(baseBlobKey).getContent();
+        byte[] theirs = targetBlobKey == null ? null : REPO_PATH.getBlob(targetBlobKey).getContent();
+        if (ours == null || theirs == null) {
+            return MergeText.conflict(ours, theirs);
+        }
+        byte[] base = splitBlobKey == null
+                ? new byte[0] : REPO_PATH.getBlob(splitBlobKey).getContent();
+        return MergeText.merge(base, ours, theirs);
+    }
+
+    /**
+     * diff [branch name] 比较分支(默认为当前 commit)与工作目录，
+     * 比较的文件为分支或当前 commit 跟踪的文件以及暂存区中添加的文件，未跟踪的文件忽略
+     *
+     * @param branchName 分支名或 commit id，为 null 时使用当前 commit
+     */
+    public static void diffWorkingTree(String branchName) {
+        Commit curCommit = REPO_PATH.getCurrCommit();
+        Commit commit = branchName == null ? curCommit : resolveRevision(branchName);
+        Set<String> paths = new HashSet<>(commit.getTree().keySet());
+        paths.addAll(curCommit.getTree().keySet());
+        paths.addAll(REPO_PATH.getStage().getAddFiles().keySet());
+        // 工作目录中的文件只在文件状态变化时重新计算哈希值
+        StatCache statCache = REPO_PATH.getStatCache();
+        Map<String, String> workingTree = new HashMap<>();
+        for (String path : paths) {
+            File file = join(REPO_PATH.getCwd(), path);
+            if (file.isFile()) {
+                workingTree.put(path, statCache.hash(file, path));
+            }
+        }
+        printDiff(paths, commit.getTree(), workingTree, true);
+    }
+
+    /**
+     * diff --cached 比较当前 commit 与暂存区
+     */
+    public static void diffStage() {
+        Stage stage = REPO_PATH.getStage();
+        Map<String, String> headTree = REPO_PATH.getCurrCommit().getTree();
+        Map<String, String> stageTree = new HashMap<>(headTree);
+        stageTree.putAll(stage.getAddFiles());
+        stage.getRemoveFiles().forEach(stageTree::remove);
+        Set<String> paths = new HashSet<>(stage.getAddFiles().keySet());
+        paths.addAll(stage.getRemoveFiles());
+        printDiff(paths, headTree, stageTree, false);
+    }
+
+    /**
+     * diff [branch name] [branch name] 比较两个分支，相同的子目录直接跳过
+     *
+     * @param fromName 分支名或 commit id
+     * @param toName   分支名或 commit id
+     */
+    public static void diffCommits(String fromName, String toName) {
+        Commit from = resolveRevision(fromName);
+        Commit to = resolveRevision(toName);
+        printDiff(REPO_PATH.changedFiles(from, to), from.getTree(), to.getTree(), false);
+    }
+
+    /**
+     * 根据分支名或 commit id 获取 Commit
+     *
+     * @param name 分支名或 commit id
+     * @return Commit
+     */
+    private static Commit resolveRevision(String name) {
+        String commitKey = REPO_PATH.getBranch(name);
+        if (commitKey == null) {
+            List<String> matchingCommits = REPO_PATH.findMatchingCommits(name);
+            if (matchingCommits.size() != 1) {
+                errorAndExit("At least one branch does not exist.");
+            }
+            commitKey = matchingCommits.get(0);
+        }
+        return REPO_PATH.getCommit(commitKey);
+    }
+
+    /**
+     * 按文件名顺序输出差异。blob 哈希值相同的文件不读取内容，
+     * 文件较多时并行计算差异，输出顺序不变
+     *
+     * @param paths       需要比较的文件
+     * @param from        k: 文件名, v: 原 blob 哈希值
+     * @param to          k: 文件名, v: 新 blob 哈希值
+     * @param workingTree 新内容是否从工作目录读取
+     */
+    private static void printDiff(Collection<String> paths, Map<String, String> from,
+                                  Map<String, String> to, boolean workingTree) {
+        List<String> changedFiles = paths.stream()
+                .filter(path -> !Objects.equals(from.get(path), to.get(path)))
+                .sorted()
+                .collect(Collectors.toList());
+        Stats.add("diff.files.skipped", paths.size() - changedFiles.size());
+        Stats.add("diff.files", changedFiles.size());
+        long start = System.nanoTime();
+        Stream<String> fileNames = changedFiles.size() >= PARALLEL_THRESHOLD
+                ? changedFiles.parallelStream() : changedFiles.stream();
+        List<String> diffs = fileNames
+                .map(path -> DiffFormatter.format(path, readBlobContent(from.get(path)),
+                        workingTree && to.containsKey(path)
+                                ? readContents(join(REPO_PATH.getCwd(), path))
+                                : readBlobContent(to.get(path))))
+                .collect(Collectors.toList());
+        Stats.rate("diff.lines_per_s", Stats.get("diff.lines"), System.nanoTime() - start);
+        diffs.forEach(System.out::print);
+    }
+
+    /**
+     * 读取 blob 内容
+     *
+     * @param blobKey blob 哈希值
+     * @return 内容，blobKey 为 null 时返回 null
+     */
+    private static byte[] readBlobContent(String blobKey) {
+        return blobKey == null ? null : REPO_PATH.getBlob(blobKey).getContent();
+    }
+
+    /**
+     * repack 将松散对象打包到新的 pack 中
+     */
+    public static void repack() {
+        REPO_PATH.repack(false);
+    }
+
+    /**
+     * gc 将松散对象和已有的 pack 合并为一个 pack
+     */
+    public static void gc() {
+        REPO_PATH.repack(true);
+    }
+
+    /**
+     * serve 为当前目录下的仓库提供 gitlet:// 访问
+     *
+     * @param port    监听端口
+     * @param address 监听地址
+     */
+    public static void serve(int port, InetAddress address) {
+        new GitletServer(REPO_PATH.getCwd(), address, port).serve();
+    }
+
+    /**
+     * daemon 在同一个 JVM 中执行当前仓库的命令
+     */
+    public static void daemon() {
+        new GitletDaemon(REPO_PATH).serve();
     }
 
     /**
@@ -567,35 +854,27 @@ public class Repository {
      *
      * @param remoteName       远程仓库名
      * @param remoteBranchName 远程分支名
+     * @param localLocks       对本地仓库加锁，与远程仓库的锁按两个仓库的顺序依次执行
      */
-    public static void push(String remoteName, String remoteBranchName) {
+    public static void push(String remoteName, String remoteBranchName, Runnable localLocks) {
         Remote remote = REPO_PATH.getRemote();
-        // 1. 检查远程仓库路径合法性
-        remote.checkRemotePath(remoteName);
-        // 2. 获取远程仓库对应分支
-        RepositoryPath remoteRepositoryPath = remote.getRepositoryPath(remoteName);
-        String remoteBranch = remoteRepositoryPath.getBranch(remoteBranchName);
-        // 3. 如果分支不为空，需要判断 Head Commit 是否在本地历史中
-        Commit currCommit = REPO_PATH.getCurrCommit();
-        Map<String, Integer> localCommitMap = REPO_PATH.bfs(currCommit);
-        Commit remoteCommit = remoteRepositoryPath.getCommit(remoteBranch);
-        if (remoteCommit != null) {
-            // Head Commit 不存在
-            if (!localCommitMap.containsKey(remoteCommit.getKey())) {
-                errorAndExit("Please pull down remote changes before pushing.");
+        // 1. 检查远程仓库合法性
+        try (RemoteRepository remoteRepository = remote.openRemote(remoteName)) {
+            lock(remoteRepository, remoteBranchName, true, localLocks);
+            // 2. 获取远程仓库对应分支
+            String remoteBranch = remoteRepository.getBranch(remoteBranchName);
+            // 3. 如果分支不为空，需要判断 Head Commit 是否在本地历史中
+            Commit currCommit = REPO_PATH.getCurrCommit();
+            if (remoteBranch != null) {
+                // Head Commit 不存在
+                if (REPO_PATH.findMatchingCommits(remoteBranch).size() != 1
+                        || !REPO_PATH.getCommitGraph().isAncestor(remoteBranch, currCommit.getKey())) {
+                    errorAndExit("Please pull down remote changes before pushing.");
+                }
             }
+            // 4. 向远程仓库复制远程仓库缺少的对象并更新分支
+            remoteRepository.push(remoteBranchName, currCommit.getKey(), REPO_PATH);
         }
-        // 4. 向远程仓库复制 commit 和 blob
-        localCommitMap.forEach((commitKey, layer) -> {
-            Commit commit = REPO_PATH.getCommit(commitKey);
-            List<Blob> blobs = commit.getTree().keySet()
-                    .stream()
-                    .map(fileName -> REPO_PATH.getBlob(commit.getBlobKey(fileName)))
-                    .collect(Collectors.toList());
-            remoteRepositoryPath.saveBlobs(blobs);
-            remoteRepositoryPath.saveCommit(commit);
-        });
-        remoteRepositoryPath.saveBranch(remoteBranchName, currCommit.getKey());
     }
 
     /**
@@ -603,31 +882,43 @@ public class Repository {
      *
      * @param remoteName       远程仓库名
      * @param remoteBranchName 远程分支名
+     * @param localLocks       对本地仓库加锁，与远程仓库的锁按两个仓库的顺序依次执行
      */
-    public static void fetch(String remoteName, String remoteBranchName) {
+    public static void fetch(String remoteName, String remoteBranchName, Runnable localLocks) {
         Remote remote = REPO_PATH.getRemote();
-        // 1. 检查远程仓库路径合法性
-        remote.checkRemotePath(remoteName);
-        // 2. 获取远程仓库对应的分支
-        RepositoryPath remoteRepositoryPath = remote.getRepositoryPath(remoteName);
-        String remoteBranch = remoteRepositoryPath.getBranch(remoteBranchName);
-        // 3. 判断分支是否存在
-        if (remoteBranch == null) {
-            errorAndExit("That remote does not have that branch.");
-        }
-        // 4. 向本地仓库复制 commit 和 blob
-        Commit remoteCommit = remoteRepositoryPath.getCommit(remoteBranch);
-        Map<String, Integer> remoteCommitMap = remoteRepositoryPath.bfs(remoteCommit);
-        remoteCommitMap.forEach((commitKey, layer) -> {
-            Commit commit = remoteRepositoryPath.getCommit(commitKey);
-            List<Blob> blobs = commit.getTree().keySet()
-                    .stream()
-                    .map(fileName -> remoteRepositoryPath.getBlob(commit.getBlobKey(fileName)))
-                    .collect(Collectors.toList());
-            REPO_PATH.saveBlobs(blobs);
-            REPO_PATH.saveCommit(commit);
-        });
-        REPO_PATH.saveRemoteBranch(remoteName, remoteBranchName, remoteCommit.getKey());
+        // 1. 检查远程仓库合法性
+        try (RemoteRepository remoteRepository = remote.openRemote(remoteName)) {
+            lock(remoteRepository, remoteBranchName, false, localLocks);
+            // 2. 获取远程仓库对应的分支
+            String remoteBranch = remoteRepository.getBranch(remoteBranchName);
+            // 3. 判断分支是否存在
+            if (remoteBranch == null) {
+                errorAndExit("That remote does not have that branch.");
+            }
+            // 4. 向本地仓库复制本地仓库缺少的对象
+            remoteRepository.fetch(remoteBranch, REPO_PATH);
+            REPO_PATH.saveRemoteBranch(remoteName, remoteBranchName, remoteBranch);
+        }
+    }
+
+    /**
+     * 对远程仓库和本地仓库加锁，先加锁的仓库由 {@link RemoteRepository#locksBefore} 决定。
+     * 两个仓库按固定顺序加锁，否则两个仓库互相 pull 时各自持有本地分支的排他锁并等待对方的分支锁
+     *
+     * @param remoteRepository 远程仓库
+     * @param remoteBranchName 远程分支名
+     * @param update           是否会更新远程分支
+     * @param localLocks       对本地仓库加锁
+     */
+    private static void lock(RemoteRepository remoteRepository, String remoteBranchName,
+                             boolean update, Runnable localLocks) {
+        if (remoteRepository.locksBefore(REPO_PATH)) {
+            remoteRepository.lock(remoteBranchName, update);
+            localLocks.run();
+        } else {
+            localLocks.run();
+            remoteRepository.lock(remoteBranchName, update);
+        }
     }
 
     /**
@@ -635,9 +926,10 @@ public class Repository {
      *
      * @param remoteName       远程仓库名
      * @param remoteBranchName 远程分支名
+     * @param localLocks       对本地仓库加锁，与远程仓库的锁按两个仓库的顺序依次执行
      */
-    public static void pull(String remoteName, String remoteBranchName) {
-        fetch(remoteName, remoteBranchName);
+    public static void pull(String remoteName, String remoteBranchName, Runnable localLocks) {
+        fetch(remoteName, remoteBranchName, localLocks);
         merge(remoteName + "/" + remoteBranchName);
     }
 }
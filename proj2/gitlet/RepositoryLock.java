@@ -0,0 +1,181 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 多进程之间的仓库锁。每种资源对应 .gitlet/locks 下的一个锁文件，
+ * 读取时加共享锁，修改时加排他锁(FileChannel.lock)，锁在命令结束或进程退出时释放。
+ * 为避免死锁，同一命令必须按以下顺序加锁，分支之间按名字排序:
+ * <pre>
+ * objects -> REMOTE -> HEAD -> stage -> refs/heads/*, refs/remotes/*
+ * </pre>
+ * 只读命令(log、status 等)全部使用共享锁，可以并发执行；修改不同分支的命令互不阻塞。
+ * fetch、pull、push 还要对本地路径的远程仓库加锁: 本地仓库先加 objects 和 REMOTE 的共享锁
+ * (持有它们的排他锁的命令不会等待其他仓库)，其余的锁与远程仓库的锁按两个仓库 .gitlet 的绝对路径顺序加锁
+ */
+
+public class RepositoryLock {
+
+    /**
+     * 对象库，repack 和 gc 加排他锁，其他命令加共享锁
+     */
+    public static final String OBJECTS = "objects";
+
+    /**
+     * 远程仓库列表
+     */
+    public static final String REMOTE = "REMOTE";
+
+    public static final String HEAD = "HEAD";
+
+    public static final String STAGE = "stage";
+
+    private static final List<String> ORDER = Arrays.asList(OBJECTS, REMOTE, HEAD, STAGE);
+
+    private final RepositoryPath repositoryPath;
+
+    /**
+     * 已持有的锁，k: 资源名
+     */
+    private final Map<String, FileLock> locks = new LinkedHashMap<>();
+
+    /**
+     * 最后加锁的资源，用于检查加锁顺序
+     */
+    private String last;
+
+    public RepositoryLock(RepositoryPath repositoryPath) {
+        this.repositoryPath = repositoryPath;
+    }
+
+    /**
+     * 加共享锁
+     *
+     * @param name 资源名
+     * @return this
+     */
+    public RepositoryLock shared(String name) {
+        return lock(name, true);
+    }
+
+    /**
+     * 加排他锁
+     *
+     * @param name 资源名
+     * @return this
+     */
+    public RepositoryLock exclusive(String name) {
+        return lock(name, false);
+    }
+
+    /**
+     * 对当前分支加锁，需要先持有 HEAD 的锁
+     *
+     * @param exclusive 是否为排他锁
+     * @return this
+     */
+    public RepositoryLock currentBranch(boolean exclusive) {
+        return branches(Collections.singletonMap(repositoryPath.getCurrBranch(), exclusive));
+    }
+
+    /**
+     * 按名字顺序对多个分支加锁，同一分支需要共享锁和排他锁时加排他锁
+     *
+     * @param branches k: 分支名(远程分支为 remote/branch), v: 是否为排他锁
+     * @return this
+     */
+    public RepositoryLock branches(Map<String, Boolean> branches) {
+        Map<String, Boolean> refs = new TreeMap<>(RepositoryLock::compare);
+        for (Map.Entry<String, Boolean> branch : branches.entrySet()) {
+            refs.put(refName(branch.getKey()), branch.getValue());
+        }
+        for (Map.Entry<String, Boolean> ref : refs.entrySet()) {
+            lock(ref.getKey(), !ref.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * 对多个分支加排他锁
+     *
+     * @param branches 分支名
+     * @return this
+     */
+    public RepositoryLock exclusiveBranches(String... branches) {
+        Map<String, Boolean> res = new HashMap<>();
+        for (String branch : branches) {
+            res.put(branch, true);
+        }
+        return branches(res);
+    }
+
+    /**
+     * 分支对应的资源名
+     */
+    public static String refName(String branchName) {
+        return branchName.contains("/")
+                ? "refs/remotes/" + branchName : "refs/heads/" + branchName;
+    }
+
+    private RepositoryLock lock(String name, boolean shared) {
+        if (locks.containsKey(name)) {
+            if (!shared && locks.get(name).isShared()) {
+                throw new IllegalStateException("Cannot upgrade lock " + name);
+            }
+            return this;
+        }
+        if (last != null && compare(last, name) > 0) {
+            throw new IllegalStateException("Lock " + name + " acquired after " + last);
+        }
+        File file = join(repositoryPath.getLocksDir(), name + ".lock");
+        file.getParentFile().mkdirs();
+        try {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileLock lock = channel.tryLock(0, Long.MAX_VALUE, shared);
+            if (lock == null) {
+                Stats.increment("lock.waits");
+                lock = channel.lock(0, Long.MAX_VALUE, shared);
+            }
+            locks.put(name, lock);
+            last = name;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        repositoryPath.lockAcquired();
+        return this;
+    }
+
+    /**
+     * 资源的加锁顺序
+     */
+    private static int compare(String a, String b) {
+        int rankA = ORDER.contains(a) ? ORDER.indexOf(a) : ORDER.size();
+        int rankB = ORDER.contains(b) ? ORDER.indexOf(b) : ORDER.size();
+        return rankA != rankB ? Integer.compare(rankA, rankB) : a.compareTo(b);
+    }
+
+    /**
+     * 释放全部锁
+     */
+    public void releaseAll() {
+        for (FileLock lock : locks.values()) {
+            try {
+                lock.channel().close();
+            } catch (IOException excp) {
+                // 进程退出时同样会释放
+            }
+        }
+        locks.clear();
+        last = null;
+    }
+}
@@ -1,7 +1,16 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.util.*;
 
 import static gitlet.Utils.*;
@@ -14,10 +23,97 @@ import static gitlet.Utils.*;
 
 public class RepositoryPath implements Serializable {
 
+    private static final long serialVersionUID = -5556703046985361081L;
+
     private static final String USER_DIR = System.getProperty("user.dir");
 
+    /**
+     * commit 缓存容量
+     */
+    private static final long COMMIT_CACHE_CAPACITY = 16L << 20;
+
+    /**
+     * blob 缓存容量，只缓存小于 BLOB_CACHE_MAX_ENTRY 的 blob
+     */
+    private static final long BLOB_CACHE_CAPACITY = 32L << 20;
+    private static final long BLOB_CACHE_MAX_ENTRY = 1L << 20;
+
+    /**
+     * repack 时为每个 blob 尝试的基础对象个数和它们占用的内存上限
+     */
+    private static final int DELTA_WINDOW = 10;
+    private static final long DELTA_WINDOW_MEMORY = 256L << 20;
+
+    /**
+     * 超过该时间未修改的临时文件视为崩溃残留，正在写入的临时文件不会这么旧
+     */
+    private static final long STALE_TEMP_MILLIS = 60L * 60 * 1000;
+
     private final File CWD;
 
+    /**
+     * 已加载的 pack 文件，按需加载
+     */
+    private transient List<PackFile> packs;
+
+    /**
+     * 工作目录文件状态缓存，按需加载
+     */
+    private transient StatCache statCache;
+
+    /**
+     * 工作目录快照，按需创建
+     */
+    private transient WorkingTree workingTree;
+
+    /**
+     * 本次命令使用的暂存区，按需加载
+     */
+    private transient Stage stage;
+
+    /**
+     * 提交图，按需加载
+     */
+    private transient CommitGraph commitGraph;
+
+    /**
+     * commit key 索引，按需加载
+     */
+    private transient CommitIndex commitIndex;
+
+    /**
+     * 提交信息索引，按需加载
+     */
+    private transient MessageIndex messageIndex;
+
+    /**
+     * 引用和暂存区的预写日志，按需创建
+     */
+    private transient Journal journal;
+
+    /**
+     * 本次命令持有的锁
+     */
+    private transient RepositoryLock lock;
+
+    /**
+     * 每次加锁后调用，daemon 在这里处理其他进程修改文件的事件
+     */
+    private transient Runnable lockListener;
+
+    /**
+     * 已读取的 HEAD、REMOTE 和分支文件内容，写入时同步更新，
+     * daemon 中其他进程修改后由 {@link #invalidate(String)} 清空
+     */
+    private transient Map<File, byte[]> refs;
+
+    /**
+     * 已读取的 commit 和 blob，按需创建
+     */
+    private transient ObjectCache<Commit> commitCache;
+    private transient ObjectCache<Tree> treeCache;
+    private transient ObjectCache<Blob> blobCache;
+
     /**
      * 远程仓库路径
      *
@@ -34,6 +130,15 @@ public class RepositoryPath implements Serializable {
         this.CWD = new File(USER_DIR);
     }
 
+    /**
+     * 指定工作目录的仓库路径
+     *
+     * @param cwd 工作目录
+     */
+    RepositoryPath(File cwd) {
+        this.CWD = cwd;
+    }
+
     /**
      * The current working directory.
      */
@@ -41,6 +146,17 @@ public class RepositoryPath implements Serializable {
         return CWD;
     }
 
+    /**
+     * 文件相对于工作目录的路径，以 / 分隔
+     *
+     * @param file 工作目录中的文件
+     * @return 相对路径
+     */
+    public String relativePath(File file) {
+        return CWD.toPath().relativize(file.toPath().normalize())
+                .toString().replace(File.separatorChar, '/');
+    }
+
     /**
      * The .gitlet directory.
      */
@@ -55,6 +171,13 @@ public class RepositoryPath implements Serializable {
         return join(getGitletDir(), "stage");
     }
 
+    /**
+     * 工作目录文件状态缓存
+     */
+    public File getStatCacheFile() {
+        return join(getGitletDir(), "index");
+    }
+
     /**
      * 存放 commit 和 blob 文件夹
      */
@@ -69,6 +192,13 @@ public class RepositoryPath implements Serializable {
         return join(getObjectsDir(), "commits");
     }
 
+    /**
+     * 存放目录对象的文件夹
+     */
+    public File getTreesDir() {
+        return join(getObjectsDir(), "trees");
+    }
+
     /**
      * 存放 blob 的文件夹
      */
@@ -76,6 +206,48 @@ public class RepositoryPath implements Serializable {
         return join(getObjectsDir(), "blobs");
     }
 
+    /**
+     * 存放 pack 的文件夹
+     */
+    public File getPackDir() {
+        return join(getObjectsDir(), "pack");
+    }
+
+    /**
+     * commit-graph 文件
+     */
+    public File getCommitGraphFile() {
+        return join(getObjectsDir(), "info", "commit-graph");
+    }
+
+    /**
+     * commit key 有序索引
+     */
+    public File getCommitIndexFile() {
+        return join(getObjectsDir(), "info", "commit-index");
+    }
+
+    /**
+     * commit key 索引中尚未合并的部分
+     */
+    public File getCommitIndexTailFile() {
+        return join(getObjectsDir(), "info", "commit-index.tail");
+    }
+
+    /**
+     * 提交信息索引
+     */
+    public File getMessageIndexFile() {
+        return join(getObjectsDir(), "info", "message-index");
+    }
+
+    /**
+     * 提交信息索引中尚未合并的部分
+     */
+    public File getMessageIndexTailFile() {
+        return join(getObjectsDir(), "info", "message-index.tail");
+    }
+
     /**
      * 引用文件夹
      */
@@ -111,6 +283,20 @@ public class RepositoryPath implements Serializable {
         return join(getRefsDir(), "remotes");
     }
 
+    /**
+     * 多进程之间的锁文件
+     */
+    public File getLocksDir() {
+        return join(getGitletDir(), "locks");
+    }
+
+    /**
+     * 引用和暂存区的预写日志
+     */
+    public File getJournalFile() {
+        return join(getGitletDir(), "journal");
+    }
+
     /**
      * 远程分支头部
      */
@@ -124,7 +310,7 @@ public class RepositoryPath implements Serializable {
      * @return 远程分支对象
      */
     public Remote getRemote() {
-        return readObject(getRemoteFile(), Remote.class);
+        return Remote.fromStored(readRef(getRemoteFile()));
     }
 
     /**
@@ -133,7 +319,52 @@ public class RepositoryPath implements Serializable {
      * @return 暂存区信息
      */
     public Stage getStage() {
-        return readObject(getStageFile(), Stage.class);
+        if (stage == null) {
+            stage = Stage.fromStored(readContents(getStageFile()));
+        }
+        return stage;
+    }
+
+    /**
+     * 获取工作目录快照
+     *
+     * @return 工作目录快照
+     */
+    public synchronized WorkingTree getWorkingTree() {
+        if (workingTree == null) {
+            workingTree = new WorkingTree(this);
+        }
+        return workingTree;
+    }
+
+    /**
+     * 获取工作目录文件状态缓存，不存在时创建空的缓存
+     *
+     * @return 文件状态缓存
+     */
+    public StatCache getStatCache() {
+        if (statCache == null) {
+            File file = getStatCacheFile();
+            statCache = new StatCache();
+            if (file.exists()) {
+                try {
+                    statCache = readObject(file, StatCache.class);
+                } catch (IllegalArgumentException excp) {
+                    // 缓存损坏或格式不兼容时重新建立
+                }
+            }
+        }
+        return statCache;
+    }
+
+    /**
+     * 文件状态缓存有修改时保存
+     */
+    public void saveStatCache() {
+        if (statCache != null && statCache.isDirty()) {
+            writeContentsAtomic(getStatCacheFile(), serialize(statCache));
+            statCache.markClean();
+        }
     }
 
     /**
@@ -142,8 +373,7 @@ public class RepositoryPath implements Serializable {
      * @return 当前 Commit
      */
     public Commit getCurrCommit() {
-        String currCommitId = getCurrCommitId();
-        return readObject(join(getCommitsDir(), currCommitId), Commit.class);
+        return readCommit(getCurrCommitId());
     }
 
     /**
@@ -156,32 +386,628 @@ public class RepositoryPath implements Serializable {
         if (commitId == null) {
             return null;
         }
-        List<String> matchingCommits = findMatchingCommits(commitId);
-        // 如果文件不止一个 或者 文件不存在
-        if (matchingCommits.size() != 1 
-                || !join(getCommitsDir(), matchingCommits.get(0)).exists()) {
+        Commit commit;
+        if (commitId.length() == UID_LENGTH) {
+            // 完整的 commit key 直接读取，命中缓存时不需要访问文件
+            commit = readCommit(commitId);
+        } else {
+            List<String> matchingCommits = findMatchingCommits(commitId);
+            // 如果文件不止一个 或者 文件不存在
+            commit = matchingCommits.size() == 1 ? readCommit(matchingCommits.get(0)) : null;
+        }
+        if (commit == null) {
             errorAndExit("No commit with that id exists.");
         }
-        return readObject(join(getCommitsDir(), matchingCommits.get(0)), Commit.class);
+        return commit;
+    }
+
+    /**
+     * 根据完整的 commit key 读取 Commit，优先从 pack 中读取
+     *
+     * @param commitKey commit key
+     * @return Commit，不存在返回 null
+     */
+    private Commit readCommit(String commitKey) {
+        Commit commit = getCommitCache().get(commitKey);
+        if (commit != null) {
+            return commit;
+        }
+        byte[] data = readPackedObject(commitKey);
+        if (data != null) {
+            commit = Commit.fromStored(commitKey, data);
+        } else {
+            File file = join(getCommitsDir(), commitKey);
+            if (!file.isFile()) {
+                return null;
+            }
+            commit = Commit.fromStored(commitKey, readContents(file));
+        }
+        commit.setSource(this);
+        getCommitCache().put(commitKey, commit, commit.estimatedSize());
+        return commit;
+    }
+
+    private synchronized ObjectCache<Commit> getCommitCache() {
+        if (commitCache == null) {
+            commitCache = new ObjectCache<>("commit", COMMIT_CACHE_CAPACITY, COMMIT_CACHE_CAPACITY);
+        }
+        return commitCache;
+    }
+
+    private synchronized ObjectCache<Tree> getTreeCache() {
+        if (treeCache == null) {
+            treeCache = new ObjectCache<>("tree", COMMIT_CACHE_CAPACITY, COMMIT_CACHE_CAPACITY);
+        }
+        return treeCache;
+    }
+
+    private synchronized ObjectCache<Blob> getBlobCache() {
+        if (blobCache == null) {
+            blobCache = new ObjectCache<>("blob", BLOB_CACHE_CAPACITY, BLOB_CACHE_MAX_ENTRY);
+        }
+        return blobCache;
     }
 
     /**
-     * 找到所有以 prefix 开头的 commit
+     * 找到所有以 prefix 开头的 commit。完整的 commit key 直接判断对象是否存在，
+     * 缩写的 commit id 在 commit 索引中二分查找
      *
      * @param prefix 前缀
      * @return prefix 开头的 commit
      */
     public List<String> findMatchingCommits(String prefix) {
-        List<String> commitKeys = plainFilenamesIn(getCommitsDir());
+        if (prefix.length() == UID_LENGTH) {
+            return hasCommit(prefix)
+                    ? Collections.singletonList(prefix) : Collections.emptyList();
+        }
+        return getCommitIndex().findByPrefix(prefix);
+    }
+
+    /**
+     * commit 是否存在
+     *
+     * @param commitKey 完整的 commit key
+     * @return 是否存在
+     */
+    public boolean hasCommit(String commitKey) {
+        return hasObject(PackFile.OBJ_COMMIT, commitKey);
+    }
+
+    /**
+     * 目录对象是否存在
+     *
+     * @param treeKey 目录哈希值
+     * @return 是否存在
+     */
+    public boolean hasTree(String treeKey) {
+        return hasObject(PackFile.OBJ_TREE, treeKey);
+    }
+
+    /**
+     * blob 是否存在
+     *
+     * @param blobKey blob 哈希值
+     * @return 是否存在
+     */
+    public boolean hasBlob(String blobKey) {
+        return hasObject(PackFile.OBJ_BLOB, blobKey);
+    }
+
+    /**
+     * 对象是否以松散对象或在 pack 中存在
+     *
+     * @param type 对象类型 {@link PackFile#OBJ_COMMIT} 等
+     * @param key  对象哈希值
+     * @return 是否存在
+     */
+    public boolean hasObject(byte type, String key) {
+        if (join(looseDirOf(type), key).isFile()) {
+            return true;
+        }
+        for (PackFile pack : getPacks()) {
+            int i = pack.find(key);
+            if (i >= 0 && pack.getType(i) == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 读取目录对象，优先从 pack 中读取
+     *
+     * @param treeKey 目录哈希值
+     * @return Tree
+     */
+    public Tree readTree(String treeKey) {
+        Tree tree = getTreeCache().get(treeKey);
+        if (tree != null) {
+            return tree;
+        }
+        byte[] data = readPackedObject(treeKey);
+        if (data == null) {
+            File file = join(getTreesDir(), treeKey);
+            if (!file.isFile()) {
+                throw error("Missing tree object %s", treeKey);
+            }
+            data = readContents(file);
+        }
+        tree = Tree.fromStored(treeKey, data);
+        getTreeCache().put(treeKey, tree, 64L + data.length * 2L);
+        return tree;
+    }
+
+    /**
+     * 展开目录对象中的全部文件
+     *
+     * @param treeKey 根目录哈希值
+     * @return k: 文件路径, v: blob 哈希值
+     */
+    public Map<String, String> readTreeFiles(String treeKey) {
+        Map<String, String> files = new HashMap<>();
+        collectFiles(treeKey, "", files);
+        return files;
+    }
+
+    private void collectFiles(String treeKey, String prefix, Map<String, String> files) {
+        for (Map.Entry<String, Tree.Entry> entry : readTree(treeKey).getEntries().entrySet()) {
+            String path = prefix + entry.getKey();
+            if (entry.getValue().isTree()) {
+                collectFiles(entry.getValue().getKey(), path + "/", files);
+            } else {
+                files.put(path, entry.getValue().getKey());
+            }
+        }
+    }
+
+    /**
+     * 找到两个 commit 之间内容不同的文件。两个 commit 都以目录对象保存时，
+     * 哈希值相同的子目录直接跳过
+     *
+     * @param a commit
+     * @param b commit
+     * @return 在其中一个 commit 中存在且 blob 不同的文件路径
+     */
+    public Set<String> changedFiles(Commit a, Commit b) {
+        Set<String> changed = new HashSet<>();
+        if (hasTree(a.getTreeKey()) && hasTree(b.getTreeKey())) {
+            diffTrees(a.getTreeKey(), b.getTreeKey(), "", changed);
+            return changed;
+        }
+        Map<String, String> treeA = a.getTree();
+        Map<String, String> treeB = b.getTree();
+        for (Map.Entry<String, String> file : treeA.entrySet()) {
+            if (!file.getValue().equals(treeB.get(file.getKey()))) {
+                changed.add(file.getKey());
+            }
+        }
+        for (String path : treeB.keySet()) {
+            if (!treeA.containsKey(path)) {
+                changed.add(path);
+            }
+        }
+        return changed;
+    }
+
+    private void diffTrees(String keyA, String keyB, String prefix, Set<String> changed) {
+        if (Objects.equals(keyA, keyB)) {
+            return;
+        }
+        Map<String, Tree.Entry> entriesA = keyA == null
+                ? Collections.emptyMap() : readTree(keyA).getEntries();
+        Map<String, Tree.Entry> entriesB = keyB == null
+                ? Collections.emptyMap() : readTree(keyB).getEntries();
+        Set<String> names = new TreeSet<>(entriesA.keySet());
+        names.addAll(entriesB.keySet());
+        for (String name : names) {
+            Tree.Entry a = entriesA.get(name);
+            Tree.Entry b = entriesB.get(name);
+            if (Objects.equals(a, b)) {
+                continue;
+            }
+            String path = prefix + name;
+            String subtreeA = a != null && a.isTree() ? a.getKey() : null;
+            String subtreeB = b != null && b.isTree() ? b.getKey() : null;
+            if (subtreeA != null || subtreeB != null) {
+                diffTrees(subtreeA, subtreeB, path + "/", changed);
+            }
+            if ((a != null && !a.isTree()) || (b != null && !b.isTree())) {
+                changed.add(path);
+            }
+        }
+    }
+
+    /**
+     * 获取全部 commit key，包括松散对象和 pack 中的对象
+     *
+     * @return 字典序排列的 commit key
+     */
+    public List<String> getAllCommitKeys() {
+        return getCommitIndex().keys();
+    }
+
+    /**
+     * 获取 commit key 索引
+     *
+     * @return commit key 索引
+     */
+    public CommitIndex getCommitIndex() {
+        if (commitIndex == null) {
+            commitIndex = new CommitIndex(this);
+        }
+        return commitIndex;
+    }
+
+    /**
+     * 获取预写日志，持久化模式由 gitlet.durability 系统属性决定
+     *
+     * @return 预写日志
+     */
+    public synchronized Journal getJournal() {
+        if (journal == null) {
+            journal = new Journal(this, Journal.Mode.fromProperty());
+        }
+        return journal;
+    }
+
+    /**
+     * 获取仓库锁
+     *
+     * @return 仓库锁
+     */
+    public synchronized RepositoryLock getLock() {
+        if (lock == null) {
+            lock = new RepositoryLock(this);
+        }
+        return lock;
+    }
+
+    /**
+     * 命令开始时重放预写日志，修复系统崩溃后未落盘的引用和暂存区
+     */
+    public void recover() {
+        getJournal().recover();
+        deleteStaleTempFiles(getGitletDir());
+        deleteStaleTempFiles(getHeadsDir());
+        File[] remoteDirs = getRemotesDir().listFiles(File::isDirectory);
+        if (remoteDirs != null) {
+            for (File remoteDir : remoteDirs) {
+                deleteStaleTempFiles(remoteDir);
+            }
+        }
+    }
+
+    /**
+     * 删除进程崩溃时残留在文件夹中的临时文件
+     *
+     * @param dir 文件夹
+     */
+    private static void deleteStaleTempFiles(File dir) {
+        File[] tmps = dir.listFiles((d, name) -> name.startsWith(TEMP_PREFIX));
+        if (tmps == null) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() - STALE_TEMP_MILLIS;
+        for (File tmp : tmps) {
+            if (tmp.isFile() && tmp.lastModified() < deadline) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * 获取提交信息索引
+     *
+     * @return 提交信息索引
+     */
+    public MessageIndex getMessageIndex() {
+        if (messageIndex == null) {
+            messageIndex = new MessageIndex(this);
+        }
+        return messageIndex;
+    }
+
+    /**
+     * 获取当前仓库的全部 pack
+     *
+     * @return pack 列表
+     */
+    public synchronized List<PackFile> getPacks() {
+        if (packs == null) {
+            packs = new ArrayList<>();
+            List<String> fileNames = plainFilenamesIn(getPackDir());
+            if (fileNames != null) {
+                for (String fileName : fileNames) {
+                    if (fileName.startsWith("pack-") && fileName.endsWith(".idx")) {
+                        packs.add(PackFile.open(join(getPackDir(), fileName)));
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    /**
+     * 从 pack 中读取对象内容
+     *
+     * @param key 对象哈希值
+     * @return 对象内容，不在任何 pack 中返回 null
+     */
+    private byte[] readPackedObject(String key) {
+        for (PackFile pack : getPacks()) {
+            byte[] data = pack.read(key);
+            if (data != null) {
+                return data;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 文件夹下的松散对象，忽略写入过程中残留的临时文件
+     *
+     * @param dir 对象文件夹
+     * @return 对象哈希值
+     */
+    private List<String> looseObjectsIn(File dir) {
         List<String> res = new ArrayList<>();
-        for (String commitKey : commitKeys) {
-            if (commitKey.startsWith(prefix)) {
-                res.add(commitKey);
+        List<String> fileNames = plainFilenamesIn(dir);
+        if (fileNames == null) {
+            return res;
+        }
+        for (String fileName : fileNames) {
+            if (fileName.length() == UID_LENGTH && isHex(fileName)) {
+                res.add(fileName);
             }
         }
         return res;
     }
 
+    /**
+     * 将松散对象打包
+     *
+     * @param all 是否同时合并已有的 pack，合并后只保留一个 pack
+     */
+    public void repack(boolean all) {
+        List<String> looseCommits = looseObjectsIn(getCommitsDir());
+        List<String> looseTrees = looseObjectsIn(getTreesDir());
+        List<String> looseBlobs = looseObjectsIn(getBlobsDir());
+        // 超过 pack 对象上限的 blob 无法整体读入内存，保持松散存储
+        looseBlobs.removeIf(key -> join(getBlobsDir(), key).length() > PackFile.MAX_ENTRY_SIZE);
+        List<PackFile> oldPacks = getPacks();
+        for (File dir : List.of(getCommitsDir(), getTreesDir(), getBlobsDir(), getPackDir())) {
+            deleteStaleTempFiles(dir);
+        }
+        if (looseCommits.isEmpty() && looseTrees.isEmpty() && looseBlobs.isEmpty()
+                && (!all || oldPacks.size() <= 1)) {
+            return;
+        }
+        PackFile.Writer writer = new PackFile.Writer(getPackDir());
+        for (String key : looseCommits) {
+            writer.add(key, PackFile.OBJ_COMMIT, readContents(join(getCommitsDir(), key)));
+        }
+        for (String key : looseTrees) {
+            writer.add(key, PackFile.OBJ_TREE, readContents(join(getTreesDir(), key)));
+        }
+        Set<String> blobKeys = new LinkedHashSet<>(looseBlobs);
+        if (all) {
+            for (PackFile pack : oldPacks) {
+                for (int i = 0; i < pack.size(); i += 1) {
+                    String key = pack.getKey(i);
+                    if (pack.getType(i) == PackFile.OBJ_BLOB) {
+                        blobKeys.add(key);
+                    } else if (!writer.contains(key)) {
+                        writer.add(key, pack.getType(i), pack.read(i));
+                    }
+                }
+            }
+        }
+        // 增量只能以同一个 pack 中的对象为基础，不合并时只需要松散 commit 中的路径
+        packBlobs(writer, blobKeys, all ? getAllCommitKeys() : looseCommits);
+        PackFile newPack = writer.finish();
+        // 新 pack 完整落盘后才删除旧对象
+        getJournal().syncNow(newPack.getPackFile(), newPack.getIdxFile());
+        for (String key : looseCommits) {
+            join(getCommitsDir(), key).delete();
+        }
+        for (String key : looseTrees) {
+            join(getTreesDir(), key).delete();
+        }
+        for (String key : looseBlobs) {
+            join(getBlobsDir(), key).delete();
+        }
+        if (all) {
+            for (PackFile pack : oldPacks) {
+                if (!pack.getIdxFile().equals(newPack.getIdxFile())) {
+                    pack.getIdxFile().delete();
+                    pack.getPackFile().delete();
+                }
+            }
+        }
+        for (PackFile pack : oldPacks) {
+            pack.close();
+        }
+        packs = null;
+        getCommitIndex().merge();
+        getMessageIndex().merge();
+        CommitGraph.write(this);
+        commitGraph = null;
+    }
+
+    /**
+     * 写入 blob。blob 按文件名、路径和大小排序，使同一文件的不同版本相邻，
+     * 每个 blob 在前 DELTA_WINDOW 个 blob 中选择增量最小的作为基础对象
+     *
+     * @param writer     pack
+     * @param blobKeys   要写入的 blob
+     * @param commitKeys 从这些 commit 的目录中查找 blob 的路径
+     */
+    private void packBlobs(PackFile.Writer writer, Collection<String> blobKeys,
+                           Collection<String> commitKeys) {
+        Map<String, String> paths = blobPaths(commitKeys);
+        Map<String, Long> sizes = new HashMap<>();
+        for (String key : blobKeys) {
+            sizes.put(key, blobSize(key));
+        }
+        List<String> sorted = new ArrayList<>(blobKeys);
+        sorted.sort(Comparator.comparing((String key) -> fileNameOf(paths.get(key)))
+                .thenComparing(key -> paths.getOrDefault(key, ""))
+                .thenComparing(sizes::get, Comparator.reverseOrder()));
+        Deque<Map.Entry<String, Delta.Index>> window = new ArrayDeque<>();
+        long windowMemory = 0;
+        for (String key : sorted) {
+            byte[] data = readStoredObject(PackFile.OBJ_BLOB, key);
+            if (data.length > PackFile.COMPRESS_LIMIT || data.length < Delta.BLOCK * 2) {
+                writer.add(key, PackFile.OBJ_BLOB, data);
+                continue;
+            }
+            String baseKey = null;
+            byte[] delta = null;
+            for (Map.Entry<String, Delta.Index> base : window) {
+                if (writer.depth(base.getKey()) >= PackFile.MAX_DELTA_DEPTH) {
+                    continue;
+                }
+                int maxSize = delta == null ? data.length / 2 : delta.length - 1;
+                byte[] candidate = base.getValue().create(data, maxSize);
+                if (candidate != null) {
+                    baseKey = base.getKey();
+                    delta = candidate;
+                }
+            }
+            if (delta != null) {
+                writer.addDelta(key, PackFile.OBJ_BLOB, data, baseKey, delta);
+            } else {
+                writer.add(key, PackFile.OBJ_BLOB, data);
+            }
+            Delta.Index index = new Delta.Index(data);
+            window.addLast(new AbstractMap.SimpleEntry<>(key, index));
+            windowMemory += index.size();
+            while (window.size() > DELTA_WINDOW || windowMemory > DELTA_WINDOW_MEMORY) {
+                windowMemory -= window.removeFirst().getValue().size();
+            }
+        }
+    }
+
+    private static String fileNameOf(String path) {
+        return path == null ? "" : path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * 找到每个 blob 对应的一个文件路径，用于选择增量的基础对象。暂存区中的 blob 也会被找到
+     *
+     * @param commitKeys 要遍历的 commit
+     * @return k: blob 哈希值, v: 文件路径
+     */
+    private Map<String, String> blobPaths(Collection<String> commitKeys) {
+        Map<String, String> paths = new HashMap<>();
+        Set<String> visitedTrees = new HashSet<>();
+        for (String commitKey : commitKeys) {
+            Commit commit = readCommit(commitKey);
+            String treeKey = commit.getTreeKey();
+            if (hasTree(treeKey)) {
+                collectBlobPaths(treeKey, "", visitedTrees, paths);
+            } else {
+                commit.getTree().forEach((path, blobKey) -> paths.putIfAbsent(blobKey, path));
+            }
+        }
+        if (getStageFile().exists()) {
+            getStage().getAddFiles().forEach((path, blobKey) -> paths.putIfAbsent(blobKey, path));
+        }
+        return paths;
+    }
+
+    private void collectBlobPaths(String treeKey, String prefix, Set<String> visitedTrees,
+                                  Map<String, String> paths) {
+        if (!visitedTrees.add(treeKey)) {
+            return;
+        }
+        for (Map.Entry<String, Tree.Entry> entry : readTree(treeKey).getEntries().entrySet()) {
+            String path = prefix + entry.getKey();
+            if (entry.getValue().isTree()) {
+                collectBlobPaths(entry.getValue().getKey(), path + "/", visitedTrees, paths);
+            } else {
+                paths.putIfAbsent(entry.getValue().getKey(), path);
+            }
+        }
+    }
+
+    /**
+     * blob 存储内容的大小
+     */
+    private long blobSize(String blobKey) {
+        File file = join(getBlobsDir(), blobKey);
+        if (file.isFile()) {
+            return file.length();
+        }
+        for (PackFile pack : getPacks()) {
+            int i = pack.find(blobKey);
+            if (i >= 0) {
+                return pack.getObjectSize(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 读取对象存储的内容，即松散对象文件的内容
+     *
+     * @param type 对象类型 {@link PackFile#OBJ_COMMIT} 等
+     * @param key  对象哈希值
+     * @return 对象内容，不存在返回 null
+     */
+    public byte[] readStoredObject(byte type, String key) {
+        File file = join(looseDirOf(type), key);
+        if (file.isFile()) {
+            return readContents(file);
+        }
+        return readPackedObject(key);
+    }
+
+    /**
+     * 对象类型对应的松散对象文件夹
+     */
+    private File looseDirOf(byte type) {
+        switch (type) {
+            case PackFile.OBJ_COMMIT:
+                return getCommitsDir();
+            case PackFile.OBJ_TREE:
+                return getTreesDir();
+            case PackFile.OBJ_BLOB:
+                return getBlobsDir();
+            default:
+                throw new IllegalArgumentException("Unknown object type: " + type);
+        }
+    }
+
+    /**
+     * 加入一个新写入的 pack，如接收到的对象
+     *
+     * @param pack 新的 pack
+     */
+    public void addPack(PackFile pack) {
+        synchronized (this) {
+            packs = null;
+        }
+        getJournal().objectWritten(pack.getPackFile());
+        getJournal().objectWritten(pack.getIdxFile());
+        for (String key : pack.keys(PackFile.OBJ_COMMIT)) {
+            getCommitIndex().add(key);
+            getMessageIndex().add(readCommit(key));
+        }
+    }
+
+    /**
+     * 获取提交图
+     *
+     * @return 提交图
+     */
+    public CommitGraph getCommitGraph() {
+        if (commitGraph == null) {
+            commitGraph = new CommitGraph(this);
+        }
+        return commitGraph;
+    }
+
     /**
      * 从 ref/heads 文件夹中获取当前 Commit ID
      *
@@ -191,9 +1017,9 @@ public class RepositoryPath implements Serializable {
         String currBranch = getCurrBranch();
         String[] split = currBranch.split("/");
         if (split.length == 1) {
-            return readContentsAsString(join(getHeadsDir(), currBranch));
+            return readRefAsString(join(getHeadsDir(), currBranch));
         } else {
-            return readContentsAsString(join(getRemotesDir(), split[0], split[1]));
+            return readRefAsString(join(getRemotesDir(), split[0], split[1]));
         }
     }
 
@@ -203,7 +1029,89 @@ public class RepositoryPath implements Serializable {
      * @return 当前分支名字
      */
     public String getCurrBranch() {
-        return readContentsAsString(getHead());
+        return readRefAsString(getHead());
+    }
+
+    /**
+     * 读取 HEAD、REMOTE 或分支文件，已读取过的直接返回缓存
+     *
+     * @param file 引用文件
+     * @return 文件内容
+     */
+    private synchronized byte[] readRef(File file) {
+        if (refs == null) {
+            refs = new HashMap<>();
+        }
+        byte[] content = refs.get(file);
+        if (content == null) {
+            content = readContents(file);
+            refs.put(file, content);
+        }
+        return content;
+    }
+
+    private String readRefAsString(File file) {
+        return new String(readRef(file), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 通过预写日志写入引用文件，同时更新缓存
+     *
+     * @param file    引用文件
+     * @param content 文件内容
+     */
+    private synchronized void writeRef(File file, byte[] content) {
+        getJournal().write(file, content);
+        if (refs != null) {
+            refs.put(file, content);
+        }
+    }
+
+    /**
+     * 丢弃其他进程修改过的文件对应的缓存。commit、tree、blob 按内容寻址，不会失效
+     *
+     * @param path 相对 .gitlet 的路径，以 / 分隔，null 表示丢弃全部缓存
+     */
+    public synchronized void invalidate(String path) {
+        boolean all = path == null;
+        if (all || path.equals("stage")) {
+            stage = null;
+        }
+        if (all || path.equals(getStatCacheFile().getName())) {
+            statCache = null;
+        }
+        if (all || path.equals("HEAD") || path.equals("REMOTE") || path.startsWith("refs/")) {
+            refs = null;
+        }
+        if (all || path.startsWith("objects/pack/")) {
+            if (packs != null) {
+                packs.forEach(PackFile::close);
+            }
+            packs = null;
+        }
+        if (all || path.startsWith("objects/info/")) {
+            commitGraph = null;
+            commitIndex = null;
+            messageIndex = null;
+        }
+    }
+
+    /**
+     * 设置加锁后的回调
+     *
+     * @param listener 回调，null 表示取消
+     */
+    public void setLockListener(Runnable listener) {
+        this.lockListener = listener;
+    }
+
+    /**
+     * 由 {@link RepositoryLock} 在每次加锁后调用
+     */
+    void lockAcquired() {
+        if (lockListener != null) {
+            lockListener.run();
+        }
     }
 
     /**
@@ -216,11 +1124,10 @@ public class RepositoryPath implements Serializable {
         String[] split = branchName.split("/");
         // 本地分支
         if (split.length == 1) {
-            List<String> branches = plainFilenamesIn(getHeadsDir());
-            if (branches == null || branches.stream().noneMatch(b -> b.equals(branchName))) {
+            if (!getBranchNames().contains(branchName)) {
                 errorAndExit("No such branch exists.");
             }
-            return readContentsAsString(join(getHeadsDir(), branchName));
+            return readRefAsString(join(getHeadsDir(), branchName));
         // 远程分支
         } else {
             return getRemoteBranchNotNull(split[0], split[1]);
@@ -239,12 +1146,10 @@ public class RepositoryPath implements Serializable {
         if (!remoteRepoDir.exists()) {
             errorAndExit("No such branch exists.");
         }
-        List<String> remoteBranches = plainFilenamesIn(remoteRepoDir);
-        if (remoteBranches == null 
-                || remoteBranches.stream().noneMatch(b -> b.equals(remoteBranchName))) {
+        if (!refNamesIn(remoteRepoDir).contains(remoteBranchName)) {
             errorAndExit("No such branch exists.");
         }
-        return readContentsAsString(join(remoteRepoDir, remoteBranchName));
+        return readRefAsString(join(remoteRepoDir, remoteBranchName));
     }
 
     /**
@@ -255,10 +1160,183 @@ public class RepositoryPath implements Serializable {
      */
     public String getBranch(String branchName) {
         File branchFile = join(getHeadsDir(), branchName);
-        if (!branchFile.exists()) {
+        if (!isValidBranchName(branchName) || !branchFile.exists()) {
             return null;
         }
-        return readContentsAsString(branchFile);
+        return readRefAsString(branchFile);
+    }
+
+    /**
+     * 本地分支名是否合法: 非空、不含 "/"(与远程分支区分)、不以 "." 开头(与临时文件区分)
+     *
+     * @param branchName 分支名
+     * @return 是否合法
+     */
+    public static boolean isValidBranchName(String branchName) {
+        return !branchName.isEmpty() && !branchName.contains("/") && !branchName.startsWith(".");
+    }
+
+    /**
+     * 引用文件夹下的分支名，忽略写入过程中残留的临时文件
+     *
+     * @param dir 引用文件夹
+     * @return 按名称排序的分支名
+     */
+    private static List<String> refNamesIn(File dir) {
+        List<String> res = new ArrayList<>();
+        List<String> fileNames = plainFilenamesIn(dir);
+        if (fileNames != null) {
+            for (String fileName : fileNames) {
+                if (!fileName.startsWith(".")) {
+                    res.add(fileName);
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * 获取全部本地分支名
+     *
+     * @return 按名称排序的分支名
+     */
+    public List<String> getBranchNames() {
+        return refNamesIn(getHeadsDir());
+    }
+
+    /**
+     * 获取全部本地分支
+     *
+     * @return k: 分支名, v: Head Commit Key，按分支名排序
+     */
+    public Map<String, String> getBranches() {
+        Map<String, String> branches = new TreeMap<>();
+        for (String branchName : getBranchNames()) {
+            branches.put(branchName, readContentsAsString(join(getHeadsDir(), branchName)));
+        }
+        return branches;
+    }
+
+    /**
+     * 获取全部本地分支和远程分支指向的 commit
+     *
+     * @return commit key
+     */
+    public Set<String> getRefCommits() {
+        Set<String> res = new HashSet<>(getBranches().values());
+        File[] remoteDirs = getRemotesDir().listFiles(File::isDirectory);
+        if (remoteDirs != null) {
+            for (File remoteDir : remoteDirs) {
+                for (String branchName : refNamesIn(remoteDir)) {
+                    res.add(readContentsAsString(join(remoteDir, branchName)));
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * commit 的历史及其中的全部目录和 blob 是否都在对象库中，接收对象后、移动分支前检查。
+     * 已有分支可达的 commit 视为完整，遍历到这些 commit 时停止
+     *
+     * @param commitKey commit key
+     * @return 是否完整
+     */
+    public boolean isConnected(String commitKey) {
+        CommitGraph graph = getCommitGraph();
+        Set<String> complete = new HashSet<>(getRefCommits());
+        Deque<String> queue = new ArrayDeque<>(complete);
+        while (!queue.isEmpty()) {
+            for (String parent : graph.parents(queue.poll())) {
+                if (complete.add(parent)) {
+                    queue.add(parent);
+                }
+            }
+        }
+        List<Commit> commits = new ArrayList<>();
+        Set<String> boundary = new HashSet<>();
+        Set<String> visited = new HashSet<>();
+        queue.add(commitKey);
+        visited.add(commitKey);
+        Set<String> seenTrees = new HashSet<>();
+        Set<String> seenBlobs = new HashSet<>();
+        try {
+            while (!queue.isEmpty()) {
+                String key = queue.poll();
+                if (complete.contains(key)) {
+                    boundary.add(key);
+                    continue;
+                }
+                Commit commit = readCommit(key);
+                if (commit == null) {
+                    return false;
+                }
+                commits.add(commit);
+                for (String parent : new String[]{commit.getFirstParentKey(),
+                        commit.getSecondParentKey()}) {
+                    if (parent != null && visited.add(parent)) {
+                        queue.add(parent);
+                    }
+                }
+            }
+            // 边界 commit 的目录和 blob 一定存在，只检查新 commit 中新增的部分
+            for (String key : boundary) {
+                Commit commit = readCommit(key);
+                if (commit.isTreeLoaded()) {
+                    seenBlobs.addAll(commit.getTree().values());
+                } else {
+                    markTree(commit.getTreeKey(), seenTrees, seenBlobs);
+                }
+            }
+            for (Commit commit : commits) {
+                if (commit.isTreeLoaded()) {
+                    // 旧格式的 commit 直接保存文件列表
+                    for (String blobKey : commit.getTree().values()) {
+                        if (seenBlobs.add(blobKey) && !hasBlob(blobKey)) {
+                            return false;
+                        }
+                    }
+                } else if (!isTreeConnected(commit.getTreeKey(), seenTrees, seenBlobs)) {
+                    return false;
+                }
+            }
+        } catch (IllegalArgumentException excp) {
+            // 对象内容无法解析
+            return false;
+        }
+        return true;
+    }
+
+    private void markTree(String treeKey, Set<String> seenTrees, Set<String> seenBlobs) {
+        if (!seenTrees.add(treeKey)) {
+            return;
+        }
+        for (Tree.Entry entry : readTree(treeKey).getEntries().values()) {
+            if (entry.isTree()) {
+                markTree(entry.getKey(), seenTrees, seenBlobs);
+            } else {
+                seenBlobs.add(entry.getKey());
+            }
+        }
+    }
+
+    private boolean isTreeConnected(String treeKey, Set<String> seenTrees, Set<String> seenBlobs) {
+        if (!seenTrees.add(treeKey)) {
+            return true;
+        }
+        if (!hasTree(treeKey)) {
+            return false;
+        }
+        for (Tree.Entry entry : readTree(treeKey).getEntries().values()) {
+            if (entry.isTree()) {
+                if (!isTreeConnected(entry.getKey(), seenTrees, seenBlobs)) {
+                    return false;
+                }
+            } else if (seenBlobs.add(entry.getKey()) && !hasBlob(entry.getKey())) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -280,11 +1358,11 @@ public class RepositoryPath implements Serializable {
     public void checkBranchNotExistsAndThrow(String branchName) {
         String[] split = branchName.split("/");
         if (split.length == 1) {
-            if (!join(getHeadsDir(), branchName).exists()) {
+            if (!isValidBranchName(branchName) || !join(getHeadsDir(), branchName).exists()) {
                 errorAndExit("A branch with that name does not exist.");
             }
         } else {
-            if (!join(getRemotesDir(), split[0], split[1]).exists()) {
+            if (split[1].startsWith(".") || !join(getRemotesDir(), split[0], split[1]).exists()) {
                 errorAndExit("A branch with that name does not exist.");
             }
         }
@@ -293,12 +1371,57 @@ public class RepositoryPath implements Serializable {
     /**
      * 创建并保存 Blob
      *
+     * @param key         blob 哈希值，即文件内容的 sha1
      * @param fileContent 文件内容
-     * @param fileName    文件名
      */
-    public void createAndSaveBlob(String key, byte[] fileContent, String fileName) {
-        Blob blob = new Blob(key, fileContent, fileName);
-        writeObject(join(getBlobsDir(), key), blob);
+    public void createAndSaveBlob(String key, byte[] fileContent) {
+        File file = join(getBlobsDir(), key);
+        writeContentsAtomic(file, Blob.rawHeader(fileContent.length), fileContent);
+        getJournal().objectWritten(file);
+    }
+
+    /**
+     * 以流的方式将文件保存为 blob，边复制边计算哈希值，文件内容不会整体读入内存
+     *
+     * @param source 源文件
+     * @return blob 哈希值
+     */
+    public String createAndSaveBlob(File source) {
+        File tmp = null;
+        try {
+            tmp = createTempFileIn(getBlobsDir(), null);
+            MessageDigest md = sha1Digest();
+            ByteBuffer buffer = streamBuffer();
+            long length = 0;
+            try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+                out.position(Blob.RAW_HEADER_LENGTH);
+                while (in.read(buffer) >= 0) {
+                    buffer.flip();
+                    length += buffer.remaining();
+                    md.update(buffer.duplicate());
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    buffer.clear();
+                }
+                // 文件长度在复制完成后回填
+                out.write(ByteBuffer.wrap(Blob.rawHeader(length)), 0);
+            }
+            String key = hexDigest(md);
+            File file = join(getBlobsDir(), key);
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+            getJournal().objectWritten(file);
+            return key;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
     }
 
     /**
@@ -308,7 +1431,7 @@ public class RepositoryPath implements Serializable {
      * @param commitKey  commitId
      */
     public void saveBranchAndCheckout(String branchName, String commitKey) {
-        writeContents(getHead(), branchName);
+        writeRef(getHead(), branchName.getBytes(StandardCharsets.UTF_8));
         saveBranch(branchName, commitKey);
     }
 
@@ -322,20 +1445,33 @@ public class RepositoryPath implements Serializable {
         String[] split = branchName.split("/");
         // 本地分支
         if (split.length == 1) {
-            writeContents(join(getHeadsDir(), branchName), commitKey);
+            writeRef(join(getHeadsDir(), branchName), commitKey.getBytes(StandardCharsets.UTF_8));
         // 远程分支
         } else {
             saveRemoteBranch(split[0], split[1], commitKey);
         }
     }
 
+    /**
+     * 删除分支
+     *
+     * @param branchName 分支名
+     */
+    public synchronized void removeBranch(String branchName) {
+        File file = join(getHeadsDir(), branchName);
+        getJournal().delete(file);
+        if (refs != null) {
+            refs.remove(file);
+        }
+    }
+
     /**
      * 保存远程分支对象
      *
      * @param remote 远程分支对象
      */
     public void saveRemote(Remote remote) {
-        writeObject(getRemoteFile(), remote);
+        writeRef(getRemoteFile(), remote.encode());
     }
 
     /**
@@ -344,7 +1480,45 @@ public class RepositoryPath implements Serializable {
      * @param commit {@link Commit}
      */
     public void saveCommit(Commit commit) {
-        writeObject(join(getCommitsDir(), commit.getKey()), commit);
+        String commitKey = commit.getKey();
+        if (hasCommit(commitKey)) {
+            return;
+        }
+        String treeKey = commit.getTreeKey();
+        if (!hasTree(treeKey)) {
+            Tree root = commit.getRootTree() != null
+                    ? commit.getRootTree() : Tree.build(commit.getTree());
+            saveTree(root);
+        }
+        File file = join(getCommitsDir(), commitKey);
+        writeContentsAtomic(file, commit.encode());
+        getJournal().objectWritten(file);
+        getCommitIndex().add(commitKey);
+        getMessageIndex().add(commit);
+        getCommitCache().put(commitKey, commit, commit.estimatedSize());
+    }
+
+    /**
+     * 保存目录对象。已存在的目录对象的子目录也一定存在，直接跳过。
+     * 构建的目录对象先保存子目录，读取的目录对象需要调用方先保存子目录
+     *
+     * @param tree 目录对象
+     */
+    public void saveTree(Tree tree) {
+        String treeKey = tree.getKey();
+        if (hasTree(treeKey)) {
+            return;
+        }
+        for (Tree subtree : tree.getSubtrees()) {
+            saveTree(subtree);
+        }
+        File treesDir = getTreesDir();
+        if (!treesDir.isDirectory()) {
+            treesDir.mkdir();
+        }
+        File file = join(treesDir, treeKey);
+        writeContentsAtomic(file, tree.encode());
+        getJournal().objectWritten(file);
     }
 
     /**
@@ -353,7 +1527,21 @@ public class RepositoryPath implements Serializable {
      * @param stage {@link Stage}
      */
     public void saveStage(Stage stage) {
-        writeObject(getStageFile(), stage);
+        getJournal().write(getStageFile(), stage.encode());
+        this.stage = stage;
+        stage.markClean();
+        Stats.increment("stage.writes");
+    }
+
+    /**
+     * 命令结束时保存本次命令中修改过的暂存区和文件状态缓存
+     */
+    public void flush() {
+        if (stage != null && stage.isDirty()) {
+            saveStage(stage);
+        }
+        saveStatCache();
+        getJournal().commit();
     }
 
     /**
@@ -364,49 +1552,77 @@ public class RepositoryPath implements Serializable {
      * @return 公共父节点
      */
     public Commit findSplitPoint(Commit base, Commit target) {
-        Map<String, Integer> baseAncestorLayerMap = bfs(base);
-        Map<String, Integer> targetAncestorLayerMap = bfs(target);
-
-        String commitId = null;
-        int layer = Integer.MAX_VALUE;
-        for (String targetKey : targetAncestorLayerMap.keySet()) {
-            if (baseAncestorLayerMap.containsKey(targetKey) 
-                    && layer > baseAncestorLayerMap.get(targetKey)) {
-                commitId = targetKey;
-                layer = baseAncestorLayerMap.get(targetKey);
-            }
-        }
-        return getCommit(commitId);
+        return getCommit(getCommitGraph().mergeBase(base.getKey(), target.getKey()));
     }
 
-    public Map<String, Integer> bfs(Commit base) {
-        Map<String, Integer> map = new HashMap<>();
-        Queue<Pair> q = new LinkedList<>();
-        q.add(new Pair(base.getKey(), 0));
-
-        while (!q.isEmpty()) {
-            Pair cur = q.poll();
-            String key = cur.key;
-            int layer = cur.layer;
-            map.put(key, layer);
-            Commit commit = getCommit(key);
-            if (commit.getFirstParentKey() != null) {
-                q.add(new Pair(commit.getFirstParentKey(), layer + 1));
+    /**
+     * 将 blob 以存储格式复制到另一个仓库，原始存储的对象不经过 Java 堆。
+     * 松散对象写入后不再修改，两个仓库在同一文件系统时可以直接建立硬链接
+     *
+     * @param blobKey blob 哈希值
+     * @param target  目标仓库
+     * @param link    是否尝试建立硬链接
+     * @return 复制的字节数
+     */
+    public long copyBlobTo(String blobKey, RepositoryPath target, boolean link) {
+        File dest = join(target.getBlobsDir(), blobKey);
+        File tmp = null;
+        try {
+            for (PackFile pack : getPacks()) {
+                int i = pack.find(blobKey);
+                if (i >= 0) {
+                    tmp = createTempFileIn(target.getBlobsDir(), null);
+                    if (pack.isStoredRaw(i)) {
+                        pack.transferTo(i, 0, tmp);
+                    } else {
+                        writeContents(tmp, pack.read(i));
+                    }
+                    long size = publishBlob(tmp, dest, target);
+                    tmp = null;
+                    return size;
+                }
             }
-            if (commit.getSecondParentKey() != null) {
-                q.add(new Pair(commit.getSecondParentKey(), layer + 1));
+            File blobFile = join(getBlobsDir(), blobKey);
+            if (!blobFile.isFile()) {
+                throw error("Missing blob %s", blobKey);
+            }
+            if (link) {
+                try {
+                    Files.createLink(dest.toPath(), blobFile.toPath());
+                    target.getJournal().objectWritten(dest);
+                    Stats.increment("transfer.blobs.linked");
+                    return dest.length();
+                } catch (FileAlreadyExistsException excp) {
+                    return 0;
+                } catch (IOException | UnsupportedOperationException excp) {
+                    // 不支持硬链接时复制文件
+                }
+            }
+            tmp = createTempFileIn(target.getBlobsDir(), null);
+            Files.copy(blobFile.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            long size = publishBlob(tmp, dest, target);
+            tmp = null;
+            return size;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
             }
         }
-        return map;
     }
 
     /**
-     * 批量保存 blob
+     * 将写好的临时文件重命名为目标仓库中的 blob
      *
-     * @param blobs blobs
+     * @return blob 文件大小
      */
-    public void saveBlobs(List<Blob> blobs) {
-        blobs.forEach(b -> writeObject(join(getBlobsDir(), b.getKey()), b));
+    private static long publishBlob(File tmp, File dest, RepositoryPath target)
+            throws IOException {
+        Files.move(tmp.toPath(), dest.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        target.getJournal().objectWritten(dest);
+        return dest.length();
     }
 
     /**
@@ -421,7 +1637,7 @@ public class RepositoryPath implements Serializable {
         if (!remoteNameDir.exists()) {
             mkdir(remoteNameDir);
         }
-        writeContents(join(remoteNameDir, remoteBranchName), key);
+        writeRef(join(remoteNameDir, remoteBranchName), key.getBytes(StandardCharsets.UTF_8));
     }
 
     /**
@@ -434,6 +1650,65 @@ public class RepositoryPath implements Serializable {
         if (blobKey == null) {
             return null;
         }
-        return readObject(join(getBlobsDir(), blobKey), Blob.class);
+        Blob blob = getBlobCache().get(blobKey);
+        if (blob != null) {
+            return blob;
+        }
+        byte[] data = readPackedObject(blobKey);
+        if (data == null) {
+            File file = join(getBlobsDir(), blobKey);
+            if (!file.isFile()) {
+                return null;
+            }
+            data = readContents(file);
+        }
+        blob = Blob.fromStored(blobKey, data);
+        getBlobCache().put(blobKey, blob, blob.getContent().length + 64L);
+        return blob;
+    }
+
+    /**
+     * 将 blob 内容直接写入文件。原始格式的 blob 通过 FileChannel.transferTo
+     * 从对象库传输到目标文件，不经过 Java 堆
+     *
+     * @param blobKey blob 哈希值
+     * @param file    目标文件
+     * @return blob 是否存在
+     */
+    public boolean checkoutBlob(String blobKey, File file) {
+        if (blobKey == null) {
+            return false;
+        }
+        mkdirsFor(file);
+        for (PackFile pack : getPacks()) {
+            int i = pack.find(blobKey);
+            if (i >= 0) {
+                if (pack.isStoredRaw(i)
+                        && Blob.isRaw(pack.readPrefix(i, Blob.RAW_HEADER_LENGTH))) {
+                    pack.transferTo(i, Blob.RAW_HEADER_LENGTH, file);
+                } else {
+                    writeContents(file, Blob.fromStored(blobKey, pack.read(i)).getContent());
+                }
+                return true;
+            }
+        }
+        File blobFile = join(getBlobsDir(), blobKey);
+        if (!blobFile.isFile()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(blobFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(Blob.RAW_HEADER_LENGTH);
+            channel.read(header, 0);
+            if (Blob.isRaw(header.array())) {
+                transfer(channel, Blob.RAW_HEADER_LENGTH,
+                        channel.size() - Blob.RAW_HEADER_LENGTH, file);
+                return true;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        // 旧的 Java 序列化格式
+        writeContents(file, readObject(blobFile, Blob.class).getContent());
+        return true;
     }
 }
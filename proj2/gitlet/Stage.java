@@ -1,23 +1,44 @@
 package gitlet;
 
+import java.io.DataInputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.BinaryCodec.*;
+import static gitlet.Utils.deserialize;
 
 /**
  * @author 苍镜月
  * @version 1.0
- * @implNote
+ * @implNote 暂存区，一次命令中的所有修改只在命令结束时保存一次
  */
 
 public class Stage implements Serializable {
 
+    private static final long serialVersionUID = 8053300043227554733L;
+
+    /**
+     * 二进制编码的魔数 "GSTG"
+     */
+    private static final int MAGIC = 0x47535447;
+
+    private static final int VERSION = 1;
+
     private final Map<String, String> addFiles;
 
     private final List<String> removeFiles;
 
+    /**
+     * 是否有未保存的修改，命令结束时由 {@link RepositoryPath#flush()} 统一保存
+     */
+    private transient boolean dirty;
+
     public Stage() {
         addFiles = new HashMap<>();
         removeFiles = new ArrayList<>();
@@ -31,7 +52,20 @@ public class Stage implements Serializable {
      */
     public void addFile(String fileName, String hash) {
         addFiles.put(fileName, hash);
-        Repository.REPO_PATH.saveStage(this);
+        dirty = true;
+    }
+
+    /**
+     * 批量添加文件到暂存区，同时撤销这些文件的删除记录
+     *
+     * @param files          要添加的文件，k: 文件名, v: 哈希值
+     * @param unchangedFiles 与当前提交一致的文件，只撤销删除记录
+     */
+    public void addFiles(Map<String, String> files, Collection<String> unchangedFiles) {
+        addFiles.putAll(files);
+        removeFiles.removeAll(files.keySet());
+        removeFiles.removeAll(unchangedFiles);
+        dirty = true;
     }
 
     /**
@@ -41,7 +75,7 @@ public class Stage implements Serializable {
      */
     public void cancelAdd(String fileName) {
         addFiles.remove(fileName);
-        Repository.REPO_PATH.saveStage(this);
+        dirty = true;
     }
 
     /**
@@ -51,7 +85,7 @@ public class Stage implements Serializable {
      */
     public void cancelRemove(String fileName) {
         removeFiles.remove(fileName);
-        Repository.REPO_PATH.saveStage(this);
+        dirty = true;
     }
 
     /**
@@ -89,7 +123,15 @@ public class Stage implements Serializable {
     public void clear() {
         addFiles.clear();
         removeFiles.clear();
-        Repository.REPO_PATH.saveStage(this);
+        dirty = true;
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    public void markClean() {
+        dirty = false;
     }
 
     public Map<String, String> getAddFiles() {
@@ -107,7 +149,55 @@ public class Stage implements Serializable {
      */
     public void removeFile(String fileName) {
         removeFiles.add(fileName);
-        Repository.REPO_PATH.saveStage(this);
+        dirty = true;
+    }
+
+    /**
+     * 二进制编码:
+     * <pre>
+     * "GSTG" | version | addCount(4) | {path | blobId[20]}* | removeCount(4) | path*
+     * </pre>
+     *
+     * @return 编码后的数据
+     */
+    public byte[] encode() {
+        return BinaryCodec.encode(MAGIC, VERSION, out -> {
+            out.writeInt(addFiles.size());
+            for (Map.Entry<String, String> entry : new TreeMap<>(addFiles).entrySet()) {
+                writeString(out, entry.getKey());
+                writeId(out, entry.getValue());
+            }
+            out.writeInt(removeFiles.size());
+            for (String fileName : removeFiles) {
+                writeString(out, fileName);
+            }
+        });
+    }
+
+    /**
+     * 解析存储的暂存区数据，兼容旧的 Java 序列化格式
+     *
+     * @param data 存储的数据
+     * @return Stage
+     */
+    static Stage fromStored(byte[] data) {
+        if (!hasMagic(data, MAGIC)) {
+            return deserialize(data, Stage.class);
+        }
+        try (DataInputStream in = open(data, MAGIC, VERSION)) {
+            Stage stage = new Stage();
+            int addCount = in.readInt();
+            for (int i = 0; i < addCount; i += 1) {
+                stage.addFiles.put(readString(in), readId(in));
+            }
+            int removeCount = in.readInt();
+            for (int i = 0; i < removeCount; i += 1) {
+                stage.removeFiles.add(readString(in));
+            }
+            return stage;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
     @Override
@@ -0,0 +1,160 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.sha1;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 工作目录文件的状态缓存(类似 git 的 index)，记录文件的大小、修改时间、
+ * inode 以及上次计算出的 blob 哈希值，文件状态未变化时不再重新计算哈希值。
+ * 可以被多个线程同时使用
+ */
+
+public class StatCache implements Serializable {
+
+    /**
+     * 修改时间距离记录时刻小于该值的文件视为 racy: 文件可能在同一个时间戳内
+     * 再次被修改而状态不变，下次使用时必须重新计算哈希值
+     */
+    private static final long RACY_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    /**
+     * k: 文件路径, v: 文件状态
+     */
+    private final Map<String, Entry> entries;
+
+    /**
+     * 是否有未保存的修改
+     */
+    private transient boolean dirty;
+
+    public StatCache() {
+        entries = new HashMap<>();
+    }
+
+    /**
+     * 获取文件内容的哈希值，文件状态未变化时直接使用缓存
+     *
+     * @param file 文件
+     * @param path 文件路径
+     * @return 文件内容哈希值
+     */
+    public String hash(File file, String path) {
+        BasicFileAttributes attrs = stat(file);
+        Entry entry = get(path);
+        if (entry != null && entry.matches(attrs)) {
+            return entry.blobKey;
+        }
+        String blobKey = sha1(file);
+        put(path, attrs, blobKey);
+        return blobKey;
+    }
+
+    /**
+     * 记录文件当前状态对应的哈希值
+     *
+     * @param file    文件
+     * @param path    文件路径
+     * @param blobKey 文件内容哈希值
+     */
+    public void update(File file, String path, String blobKey) {
+        put(path, stat(file), blobKey);
+    }
+
+    private synchronized Entry get(String path) {
+        return entries.get(path);
+    }
+
+    private synchronized void put(String path, BasicFileAttributes attrs, String blobKey) {
+        Entry entry = new Entry(attrs, blobKey);
+        if (!entry.equals(entries.get(path))) {
+            entries.put(path, entry);
+            dirty = true;
+        }
+    }
+
+    public synchronized boolean isDirty() {
+        return dirty;
+    }
+
+    public synchronized void markClean() {
+        dirty = false;
+    }
+
+    private static BasicFileAttributes stat(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * 单个文件的状态
+     */
+    private static class Entry implements Serializable {
+
+        private final long size;
+
+        private final long modifiedTime;
+
+        private final String fileKey;
+
+        private final String blobKey;
+
+        /**
+         * 记录时文件刚被修改过，不能信任
+         */
+        private final boolean racy;
+
+        Entry(BasicFileAttributes attrs, String blobKey) {
+            this.size = attrs.size();
+            this.modifiedTime = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+            this.fileKey = String.valueOf(attrs.fileKey());
+            this.blobKey = blobKey;
+            long now = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+            this.racy = modifiedTime >= now - RACY_WINDOW_NANOS;
+        }
+
+        /**
+         * 文件状态是否与记录一致
+         */
+        boolean matches(BasicFileAttributes attrs) {
+            return !racy
+                    && size == attrs.size()
+                    && modifiedTime == attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+                    && fileKey.equals(String.valueOf(attrs.fileKey()));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Entry entry = (Entry) o;
+            return size == entry.size
+                    && modifiedTime == entry.modifiedTime
+                    && racy == entry.racy
+                    && Objects.equals(fileKey, entry.fileKey)
+                    && Objects.equals(blobKey, entry.blobKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(size, modifiedTime, fileKey, blobKey, racy);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package gitlet;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 命令执行过程中的计数器，使用 --stats 选项时在命令结束后输出到标准错误
+ */
+
+public class Stats {
+
+    /**
+     * k: 计数器名, v: 计数
+     */
+    private static final Map<String, AtomicLong> COUNTERS = new ConcurrentSkipListMap<>();
+
+    /**
+     * 速率等非整数的统计值，k: 名称, v: 值
+     */
+    private static final Map<String, Double> GAUGES = new ConcurrentSkipListMap<>();
+
+    private static boolean enabled;
+
+    /**
+     * 计数器加一
+     *
+     * @param name 计数器名
+     */
+    public static void increment(String name) {
+        add(name, 1);
+    }
+
+    /**
+     * 计数器增加 delta
+     *
+     * @param name  计数器名
+     * @param delta 增量
+     */
+    public static void add(String name, long delta) {
+        COUNTERS.computeIfAbsent(name, k -> new AtomicLong()).addAndGet(delta);
+    }
+
+    /**
+     * 获取计数
+     *
+     * @param name 计数器名
+     * @return 计数
+     */
+    public static long get(String name) {
+        AtomicLong counter = COUNTERS.get(name);
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * 记录速率: 数量 / 秒
+     *
+     * @param name   统计名
+     * @param amount 数量
+     * @param nanos  耗时(纳秒)
+     */
+    public static void rate(String name, double amount, long nanos) {
+        GAUGES.put(name, nanos <= 0 ? 0 : amount * 1e9 / nanos);
+    }
+
+    public static void enable() {
+        enabled = true;
+    }
+
+    public static void disable() {
+        enabled = false;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 清空全部计数器
+     */
+    public static void reset() {
+        COUNTERS.clear();
+        GAUGES.clear();
+    }
+
+    /**
+     * 开启统计时输出全部计数器
+     */
+    public static void print() {
+        if (!enabled) {
+            return;
+        }
+        COUNTERS.forEach((name, counter) -> System.err.printf("%s: %d%n", name, counter.get()));
+        GAUGES.forEach((name, value) -> System.err.printf("%s: %.2f%n", name, value));
+    }
+}
@@ -0,0 +1,184 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import static gitlet.BinaryCodec.*;
+import static gitlet.Utils.sha1;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 目录对象，记录一个目录下的文件和子目录。以编码的哈希值作为 key，
+ * 内容相同的目录在不同 commit 之间共享同一个对象，修改一个文件只会产生
+ * 从该文件到根目录路径上的新对象
+ * <pre>
+ * "GTRE" | version | count(4) | {type(1) | name | id[20]}*
+ * </pre>
+ * 条目按名称排序
+ */
+
+public class Tree {
+
+    /**
+     * 条目类型
+     */
+    static final byte TYPE_BLOB = 1;
+    static final byte TYPE_TREE = 2;
+
+    /**
+     * 二进制编码的魔数 "GTRE"
+     */
+    private static final int MAGIC = 0x47545245;
+
+    private static final int VERSION = 1;
+
+    /**
+     * k: 文件名或目录名, v: 条目
+     */
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+
+    /**
+     * 由文件列表构建时的子目录，k: 目录名, v: 子目录。读取的对象为空
+     */
+    private final Map<String, Tree> subtrees = new HashMap<>();
+
+    private String key;
+
+    private Tree() {
+    }
+
+    /**
+     * 由 commit 的文件列表构建目录对象
+     *
+     * @param files k: 文件路径(以 / 分隔), v: blob 哈希值
+     * @return 根目录
+     */
+    static Tree build(Map<String, String> files) {
+        Tree root = new Tree();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            root.insert(file.getKey(), file.getValue());
+        }
+        return root;
+    }
+
+    private void insert(String path, String blobKey) {
+        int slash = path.indexOf('/');
+        if (slash < 0) {
+            entries.put(path, new Entry(TYPE_BLOB, blobKey));
+        } else {
+            subtrees.computeIfAbsent(path.substring(0, slash), k -> new Tree())
+                    .insert(path.substring(slash + 1), blobKey);
+        }
+    }
+
+    /**
+     * 目录的哈希值，构建的目录先计算全部子目录的哈希值
+     */
+    public String getKey() {
+        if (key == null) {
+            for (Map.Entry<String, Tree> subtree : subtrees.entrySet()) {
+                entries.put(subtree.getKey(), new Entry(TYPE_TREE, subtree.getValue().getKey()));
+            }
+            key = sha1(encode());
+        }
+        return key;
+    }
+
+    /**
+     * 条目，按名称排序
+     */
+    public Map<String, Entry> getEntries() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * 构建时产生的子目录
+     */
+    Collection<Tree> getSubtrees() {
+        return subtrees.values();
+    }
+
+    public byte[] encode() {
+        return BinaryCodec.encode(MAGIC, VERSION, out -> {
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                out.writeByte(entry.getValue().type);
+                writeString(out, entry.getKey());
+                writeId(out, entry.getValue().key);
+            }
+        });
+    }
+
+    /**
+     * 解析存储的目录对象
+     *
+     * @param key  目录哈希值
+     * @param data 存储的数据
+     * @return Tree
+     */
+    static Tree fromStored(String key, byte[] data) {
+        try (DataInputStream in = open(data, MAGIC, VERSION)) {
+            Tree tree = new Tree();
+            int count = in.readInt();
+            for (int i = 0; i < count; i += 1) {
+                byte type = in.readByte();
+                String name = readString(in);
+                tree.entries.put(name, new Entry(type, readId(in)));
+            }
+            tree.key = key;
+            return tree;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * 目录中的一个文件或子目录
+     */
+    public static class Entry {
+
+        private final byte type;
+
+        private final String key;
+
+        Entry(byte type, String key) {
+            this.type = type;
+            this.key = key;
+        }
+
+        public boolean isTree() {
+            return type == TYPE_TREE;
+        }
+
+        /**
+         * blob 或子目录的哈希值
+         */
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Entry entry = (Entry) o;
+            return type == entry.type && Objects.equals(key, entry.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, key);
+        }
+    }
+}
@@ -1,13 +1,16 @@
 package gitlet;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 
@@ -28,10 +31,82 @@ class Utils {
 
     static final String SEPARATOR = File.separator;
 
+    /**
+     * Prefix of the temporary files written next to their targets.  Branch
+     * names may not start with '.', so a leftover temporary file in a refs
+     * directory is never mistaken for a branch.
+     */
+    static final String TEMP_PREFIX = ".tmp-";
+
     /* SHA-1 HASH VALUES. */
 
+    /**
+     * Size of the buffers used when streaming file contents.
+     */
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * One SHA-1 digest per thread, so that hashing never has to look up
+     * the algorithm again.
+     */
+    private static final ThreadLocal<MessageDigest> SHA1_DIGEST =
+        ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException excp) {
+                throw new IllegalArgumentException("System does not support SHA-1");
+            }
+        });
+
+    /**
+     * One direct buffer per thread for streaming file contents.
+     */
+    private static final ThreadLocal<ByteBuffer> STREAM_BUFFER =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(STREAM_BUFFER_SIZE));
+
+    /**
+     * Returns this thread's SHA-1 digest, reset and ready for use.
+     */
+    static MessageDigest sha1Digest() {
+        MessageDigest md = SHA1_DIGEST.get();
+        md.reset();
+        return md;
+    }
+
+    /**
+     * Returns this thread's streaming buffer, cleared and ready for use.
+     */
+    static ByteBuffer streamBuffer() {
+        ByteBuffer buffer = STREAM_BUFFER.get();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns the lower-case hexadecimal numeral of the digest in MD.
+     */
+    static String hexDigest(MessageDigest md) {
+        byte[] digest = md.digest();
+        return bytesToHex(digest, 0, digest.length);
+    }
+
+    /**
+     * Returns the SHA-1 hash of the contents of FILE.  The file is read
+     * in fixed-size chunks, so memory use does not depend on its size.
+     */
     static String sha1(File file) {
-        return sha1(Utils.readContents(file));
+        MessageDigest md = sha1Digest();
+        ByteBuffer buffer = streamBuffer();
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return hexDigest(md);
     }
 
     /**
@@ -39,25 +114,17 @@ class Utils {
      * be any mixture of byte arrays and Strings.
      */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
+        MessageDigest md = sha1Digest();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
         }
+        return hexDigest(md);
     }
 
     /**
@@ -150,6 +217,60 @@ class Utils {
         }
     }
 
+    /**
+     * As for writeContents, but the bytes are first written to a temporary
+     * file in the same directory, which is then renamed over FILE.  Readers
+     * therefore see either the old or the new contents, never a mixture.
+     */
+    static void writeContentsAtomic(File file, Object... contents) {
+        File tmp = null;
+        try {
+            tmp = createTempFileIn(file.getAbsoluteFile().getParentFile(), null);
+            writeContents(tmp, contents);
+            Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Create an empty temporary file in DIR whose name starts with
+     * TEMP_PREFIX and ends with SUFFIX (".tmp" if SUFFIX is null).
+     */
+    static File createTempFileIn(File dir, String suffix) throws IOException {
+        return File.createTempFile(TEMP_PREFIX, suffix, dir);
+    }
+
+    /**
+     * Write the COUNT bytes of SRC starting at POSITION to FILE, creating or
+     * overwriting it as needed.  The bytes are moved with
+     * FileChannel.transferTo and never copied into the Java heap.
+     */
+    static void transfer(FileChannel src, long position, long count, File file)
+            throws IOException {
+        if (file.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        try (FileChannel dst = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long done = 0;
+            while (done < count) {
+                long n = src.transferTo(position + done, count - done, dst);
+                if (n <= 0) {
+                    throw new EOFException("Unexpected end of " + file.getName());
+                }
+                done += n;
+            }
+        }
+    }
+
     /**
      * Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      * Throws IllegalArgumentException in case of problems.
@@ -245,6 +366,69 @@ class Utils {
         }
     }
 
+    /**
+     * Return an object of type T deserialized from BYTES, casting it to
+     * EXPECTEDCLASS.  Throws IllegalArgumentException in case of problems.
+     */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                               Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* HEXADECIMAL UTILITIES */
+
+    /**
+     * Return the raw bytes denoted by the hexadecimal numeral HEX, which
+     * must have an even number of digits.
+     */
+    static byte[] hexToBytes(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) (Character.digit(hex.charAt(2 * i), 16) << 4
+                    | Character.digit(hex.charAt(2 * i + 1), 16));
+        }
+        return result;
+    }
+
+    /**
+     * Return the lower-case hexadecimal numeral of the LENGTH bytes of
+     * BYTES starting at OFFSET.
+     */
+    static String bytesToHex(byte[] bytes, int offset, int length) {
+        char[] result = new char[2 * length];
+        for (int i = 0; i < length; i += 1) {
+            int b = bytes[offset + i] & 0xff;
+            result[2 * i] = Character.forDigit(b >>> 4, 16);
+            result[2 * i + 1] = Character.forDigit(b & 0xf, 16);
+        }
+        return new String(result);
+    }
+
+    /**
+     * Return true iff STR is a non-empty lower-case hexadecimal numeral.
+     */
+    static boolean isHex(String str) {
+        if (str == null || str.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < str.length(); i += 1) {
+            char c = str.charAt(i);
+            if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
 
 
     /* MESSAGES AND ERROR REPORTING */
@@ -259,7 +443,14 @@ class Utils {
 
     static void errorAndExit(String msg) {
         System.out.println(msg);
-        System.exit(0);
+        exit(0);
+    }
+
+    /**
+     * 结束当前命令，不保存本次命令的修改
+     */
+    static void exit(int status) {
+        throw new CommandExit(status);
     }
 
     /**
@@ -302,4 +493,16 @@ class Utils {
             throw error("Failed to create directory, path: %s", dir.getPath());
         }
     }
+
+    /**
+     * 创建文件所在的各层目录，已存在时忽略。并行写入时其他线程可能已经创建了目录
+     *
+     * @param file 文件
+     */
+    static void mkdirsFor(File file) {
+        File parent = file.getParentFile();
+        if (!parent.mkdirs() && !parent.isDirectory()) {
+            throw error("Failed to create directory, path: %s", parent.getPath());
+        }
+    }
 }
@@ -0,0 +1,167 @@
+package gitlet;
+
+import java.io.File;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * @author 苍镜月
+ * @version 1.0
+ * @implNote 工作目录(包括子目录)中未被忽略的文件及其内容哈希值的快照，供 status 使用。
+ * 命令行中每条命令新建快照，由 {@link FileWalk} 并行列出全部文件，哈希值按需通过 {@link StatCache} 计算；
+ * daemon 中快照在命令之间保留，只重新检查收到文件事件的路径，事件溢出或 .gitletignore 修改时重新扫描全部文件，
+ * status 的文件 IO 与修改过的文件数成正比
+ */
+
+public class WorkingTree {
+
+    private final RepositoryPath repositoryPath;
+
+    /**
+     * k: 文件路径, v: 文件内容哈希值，尚未计算时为 null
+     */
+    private final Map<String, String> files = new HashMap<>();
+
+    /**
+     * 按字典序排序的文件路径，文件增删后重新排序
+     */
+    private Set<String> sortedFiles;
+
+    /**
+     * 快照中的文件所在的目录，目录整个被移走时删除其中的文件
+     */
+    private final Set<String> directories = new HashSet<>();
+
+    /**
+     * 上次扫描后收到事件的路径
+     */
+    private final Set<String> dirty = new HashSet<>();
+
+    /**
+     * 是否已经完整扫描过
+     */
+    private boolean scanned;
+
+    private IgnoreRules ignoreRules;
+
+    public WorkingTree(RepositoryPath repositoryPath) {
+        this.repositoryPath = repositoryPath;
+    }
+
+    /**
+     * 路径发生了变化，下次使用时重新检查
+     *
+     * @param path 相对工作目录的路径，以 / 分隔
+     */
+    public synchronized void invalidate(String path) {
+        if (path.equals(IgnoreRules.FILE_NAME)) {
+            ignoreRules = null;
+            invalidateAll();
+        } else if (scanned) {
+            dirty.add(path);
+        }
+    }
+
+    /**
+     * 下次使用时重新扫描全部文件
+     */
+    public synchronized void invalidateAll() {
+        scanned = false;
+        dirty.clear();
+    }
+
+    /**
+     * 工作目录根下 .gitletignore 中的忽略规则
+     */
+    public synchronized IgnoreRules getIgnoreRules() {
+        if (ignoreRules == null) {
+            ignoreRules = IgnoreRules.load(repositoryPath.getCwd());
+        }
+        return ignoreRules;
+    }
+
+    /**
+     * 工作目录中未被忽略的全部文件
+     *
+     * @return 文件路径，以 / 分隔，按字典序排序
+     */
+    public synchronized Set<String> getFiles() {
+        refresh();
+        if (sortedFiles == null) {
+            sortedFiles = Collections.unmodifiableSet(new TreeSet<>(files.keySet()));
+        }
+        return sortedFiles;
+    }
+
+    /**
+     * 文件内容的哈希值
+     *
+     * @param path 文件路径
+     * @return 哈希值，文件不存在时返回 null
+     */
+    public synchronized String hash(String path) {
+        refresh();
+        String key = files.get(path);
+        if (key == null && files.containsKey(path)) {
+            key = repositoryPath.getStatCache().hash(join(repositoryPath.getCwd(), path), path);
+            files.put(path, key);
+        } else if (key == null && getIgnoreRules().isExcluded(path)) {
+            // 已跟踪但被忽略的文件不在快照中，也没有事件，每次通过 stat cache 检查
+            File file = join(repositoryPath.getCwd(), path);
+            key = file.isFile() ? repositoryPath.getStatCache().hash(file, path) : null;
+        }
+        return key;
+    }
+
+    private void refresh() {
+        File cwd = repositoryPath.getCwd();
+        IgnoreRules rules = getIgnoreRules();
+        if (!scanned) {
+            files.clear();
+            directories.clear();
+            for (String path : FileWalk.walk(cwd, "", rules)) {
+                put(path, null);
+            }
+            sortedFiles = null;
+            scanned = true;
+            Stats.increment("worktree.scans");
+            return;
+        }
+        if (dirty.isEmpty()) {
+            return;
+        }
+        // 收到事件的文件直接计算哈希值，不更新 stat cache，避免每次 status 都重写整个 stat cache
+        for (String path : dirty) {
+            File file = join(cwd, path);
+            boolean existed = files.containsKey(path);
+            if (file.isFile() && !rules.isIgnored(path, false)) {
+                put(path, sha1(file));
+            } else if (existed) {
+                files.remove(path);
+            } else if (directories.contains(path) && !file.isDirectory()) {
+                // 目录被移走时只收到目录本身的事件
+                String prefix = path + "/";
+                files.keySet().removeIf(name -> name.startsWith(prefix));
+                directories.removeIf(name -> name.equals(path) || name.startsWith(prefix));
+                sortedFiles = null;
+            }
+            if (existed != files.containsKey(path)) {
+                sortedFiles = null;
+            }
+        }
+        Stats.add("worktree.rechecks", dirty.size());
+        dirty.clear();
+    }
+
+    /**
+     * 把文件加入快照，并记录它所在的各层目录
+     */
+    private void put(String path, String key) {
+        files.put(path, key);
+        int slash = path.lastIndexOf('/');
+        while (slash > 0 && directories.add(path.substring(0, slash))) {
+            slash = path.lastIndexOf('/', slash - 1);
+        }
+    }
+}